@@ -0,0 +1,50 @@
+package cn.zalldigital;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * {@link KeyValidator} 与原来的正则校验的对比。与 KeyValidator 位于同一个包中以访问包内可见的类
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyValidatorBenchmark {
+
+    private static final Pattern KEY_PATTERN = Pattern.compile(
+            "^((?!^distinct_id$|^original_id$|^time$|^properties$|^id$|^first_id$|^second_id$|^users$|^events$|^event$|^user_id$|^date$|^datetime$)[a-zA-Z_$][a-zA-Z\\d_$]{0,99})$",
+            Pattern.CASE_INSENSITIVE);
+
+    private final String[] keys = {
+            "ProductId", "ProductCatalog", "isAddedToFav", "$ip", "Price", "Quantity", "Tags", "Referrer", "ViewProduct",
+            "ServerVersion"
+    };
+
+    @Benchmark
+    public void keyValidator(Blackhole blackhole) {
+        for (String key : keys) {
+            blackhole.consume(KeyValidator.isValid(key));
+        }
+    }
+
+    @Benchmark
+    public void pattern(Blackhole blackhole) {
+        for (String key : keys) {
+            blackhole.consume(KEY_PATTERN.matcher(key).matches());
+        }
+    }
+}
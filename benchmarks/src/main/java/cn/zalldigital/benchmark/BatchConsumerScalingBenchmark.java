@@ -0,0 +1,115 @@
+package cn.zalldigital.benchmark;
+
+import cn.zalldigital.Event;
+import cn.zalldigital.consumer.BackpressurePolicy;
+import cn.zalldigital.consumer.BatchConsumer;
+import cn.zalldigital.exception.InvalidArgumentException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个线程同时调用 {@link BatchConsumer#send(Event)} 的吞吐量，bufferShards 为 1 时所有线程竞争同一把锁。
+ * <p>
+ * 缓存已满时丢弃新数据而不等待，调用线程不受本地 {@link HttpStub} 发送速度的限制；丢弃数据同样需要获取分片的锁，
+ * 因此结果反映的是 send 的锁竞争。
+ * <p>
+ * 用法：java -cp target/benchmarks.jar cn.zalldigital.benchmark.BatchConsumerScalingBenchmark，
+ * 依次以 1 到 64 个线程运行
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchConsumerScalingBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+    @Param({"1", "64"})
+    public int bufferShards;
+
+    private HttpStub stub;
+    private BatchConsumer consumer;
+
+    @State(Scope.Thread)
+    public static class ThreadEvents {
+        List<Event> events;
+        int index;
+
+        @Setup(Level.Trial)
+        public void setup() throws InvalidArgumentException {
+            events = BenchmarkData.events(1024);
+        }
+
+        Event next() {
+            Event event = events.get(index);
+            index = (index + 1) & 1023;
+            return event;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void startStub() throws IOException {
+        stub = new HttpStub();
+    }
+
+    /**
+     * 每轮迭代使用新的 Consumer，关闭时发送缓存中剩余的数据
+     */
+    @Setup(Level.Iteration)
+    public void setup() {
+        BatchConsumer.Config config = new BatchConsumer.Config(stub.getServerUrl());
+        config.setBulkSize(1000);
+        config.setMaxBufferSize(100000);
+        config.setBufferShards(bufferShards);
+        config.setBackpressurePolicy(BackpressurePolicy.dropNewest());
+        config.setThrowException(false);
+        consumer = new BatchConsumer(config);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        consumer.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopStub() {
+        stub.close();
+    }
+
+    @Benchmark
+    public void send(ThreadEvents events) {
+        consumer.send(events.next());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : THREAD_COUNTS) {
+            new Runner(new OptionsBuilder()
+                    .include(BatchConsumerScalingBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .result("jmh-result-scaling-" + threads + "-threads.json")
+                    .resultFormat(ResultFormatType.JSON)
+                    .build()).run();
+        }
+    }
+}
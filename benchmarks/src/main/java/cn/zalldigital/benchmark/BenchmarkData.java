@@ -0,0 +1,112 @@
+package cn.zalldigital.benchmark;
+
+import cn.zalldigital.Event;
+import cn.zalldigital.ZallDataAnalytics;
+import cn.zalldigital.consumer.Consumer;
+import cn.zalldigital.exception.InvalidArgumentException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基准测试使用的数据，与 README 中的示例相近
+ */
+public final class BenchmarkData {
+
+    public static final String DISTINCT_ID = "abcdefgABCDEFG123456789";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @return 浏览商品事件的属性
+     */
+    public static Map<String, Object> eventProperties() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("$time", new Date());
+        properties.put("$ip", "123.123.123.123");
+        properties.put("ProductId", "987654");
+        properties.put("ProductCatalog", "Numerical Code");
+        properties.put("ProductName", "Mechanical keyboard with 104 keys");
+        properties.put("isAddedToFav", true);
+        properties.put("Price", 666.66);
+        properties.put("Quantity", 3);
+        properties.put("Tags", Arrays.asList("sale", "new", "keyboard"));
+        properties.put("Referrer", "https://www.example.com/search?q=keyboard");
+        return properties;
+    }
+
+    /**
+     * @return 用户属性
+     */
+    public static Map<String, Object> profileProperties() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("Sex", "Male");
+        properties.put("UserLv", "VIP");
+        properties.put("Age", 32);
+        properties.put("City", "ShangHai");
+        properties.put("RegisterTime", new Date());
+        return properties;
+    }
+
+    /**
+     * @return item 属性
+     */
+    public static Map<String, Object> itemProperties() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("Name", "Mechanical keyboard");
+        properties.put("Price", 666.66);
+        properties.put("Stock", 120);
+        properties.put("OnSale", true);
+        return properties;
+    }
+
+    /**
+     * @return 事件公共属性
+     */
+    public static Map<String, Object> superProperties() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("ServerVersion", "6.6");
+        properties.put("Location", "ShangHai");
+        properties.put("$app_version", "1.2.3");
+        return properties;
+    }
+
+    /**
+     * 通过 {@link ZallDataAnalytics#track} 生成与实际发送相同的事件
+     *
+     * @param count 事件数
+     * @return 事件列表
+     */
+    public static List<Event> events(int count) throws InvalidArgumentException {
+        final List<Event> events = new ArrayList<>(count);
+        ZallDataAnalytics za = new ZallDataAnalytics(new Consumer() {
+            @Override
+            public void send(Map<String, Object> message) {
+                events.add(Event.fromMap(message));
+            }
+
+            @Override
+            public void send(Event event) {
+                events.add(event);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        za.registerSuperProperties(superProperties());
+        for (int i = 0; i < count; i++) {
+            za.track(DISTINCT_ID + i, true, "ViewProduct", eventProperties());
+        }
+        return events;
+    }
+}
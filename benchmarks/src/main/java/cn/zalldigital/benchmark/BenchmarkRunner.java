@@ -0,0 +1,38 @@
+package cn.zalldigital.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * 分别以 1、4 和 CPU 核数个线程运行基准测试，同时通过 GC profiler 输出每次操作分配的内存
+ * <p>
+ * 用法：java -cp target/benchmarks.jar cn.zalldigital.benchmark.BenchmarkRunner [基准测试名称的正则] [快速模式 quick]
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : ".*Benchmark.*";
+        boolean quick = args.length > 1 && "quick".equals(args[1]);
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int[] threadCounts = cpus > 4 ? new int[]{1, 4, cpus} : new int[]{1, 4};
+
+        for (int threads : threadCounts) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .result("jmh-result-" + threads + "-threads.json")
+                    .resultFormat(ResultFormatType.JSON);
+            if (quick) {
+                options.warmupIterations(1).warmupTime(TimeValue.seconds(1))
+                        .measurementIterations(1).measurementTime(TimeValue.seconds(1));
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
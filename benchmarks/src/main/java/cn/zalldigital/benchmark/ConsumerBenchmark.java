@@ -0,0 +1,127 @@
+package cn.zalldigital.benchmark;
+
+import cn.zalldigital.ZallDataAnalytics;
+import cn.zalldigital.consumer.AsyncBatchConsumer;
+import cn.zalldigital.consumer.BatchConsumer;
+import cn.zalldigital.consumer.ConsoleConsumer;
+import cn.zalldigital.consumer.Consumer;
+import cn.zalldigital.consumer.LoggerConsumer;
+import cn.zalldigital.exception.InvalidArgumentException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过各个 Consumer 记录事件的开销，BatchConsumer 和 AsyncBatchConsumer 发送到本地的 {@link HttpStub}，
+ * LoggerConsumer 写入临时目录，ConsoleConsumer 输出到丢弃数据的 Writer
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsumerBenchmark {
+
+    @Param({"console", "logger", "batch", "async"})
+    public String consumer;
+
+    private HttpStub stub;
+    private File logDirectory;
+    private ZallDataAnalytics za;
+
+    @State(Scope.Thread)
+    public static class ThreadProperties {
+        Map<String, Object> event = BenchmarkData.eventProperties();
+    }
+
+    @Setup(Level.Trial)
+    public void startStub() throws IOException {
+        stub = new HttpStub();
+    }
+
+    /**
+     * 每轮迭代使用新的 Consumer 和日志目录，避免日志文件占满磁盘
+     */
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        za = new ZallDataAnalytics(newConsumer());
+        za.registerSuperProperties(BenchmarkData.superProperties());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        za.shutdown();
+        if (logDirectory != null) {
+            File[] files = logDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            logDirectory.delete();
+            logDirectory = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopStub() {
+        stub.close();
+    }
+
+    @Benchmark
+    public void track(ThreadProperties properties) throws InvalidArgumentException {
+        za.track(BenchmarkData.DISTINCT_ID, true, "ViewProduct", properties.event);
+    }
+
+    private Consumer newConsumer() throws IOException {
+        switch (consumer) {
+            case "console":
+                return new ConsoleConsumer(new NullWriter());
+            case "logger":
+                logDirectory = Files.createTempDirectory("zall-benchmark").toFile();
+                return new LoggerConsumer(logDirectory.getPath());
+            case "batch":
+                return new BatchConsumer(stub.getServerUrl());
+            case "async":
+                return new AsyncBatchConsumer(stub.getServerUrl());
+            default:
+                throw new IllegalArgumentException("Unknown consumer " + consumer);
+        }
+    }
+
+    private static class NullWriter extends Writer {
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void write(String str, int offset, int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
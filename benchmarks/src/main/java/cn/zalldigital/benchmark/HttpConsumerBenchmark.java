@@ -0,0 +1,64 @@
+package cn.zalldigital.benchmark;
+
+import cn.zalldigital.Event;
+import cn.zalldigital.consumer.HttpConsumer;
+import cn.zalldigital.exception.HttpConsumerException;
+import cn.zalldigital.exception.InvalidArgumentException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HttpConsumer} 编码并发送一个批次到本地 {@link HttpStub} 的开销
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HttpConsumerBenchmark {
+
+    @Param({"true", "false"})
+    public boolean gzip;
+
+    @Param({"50"})
+    public int batchSize;
+
+    private HttpStub stub;
+    private HttpConsumer httpConsumer;
+    private List<Event> events;
+
+    @Setup
+    public void setup() throws IOException, InvalidArgumentException {
+        stub = new HttpStub();
+        HttpConsumer.Config config = new HttpConsumer.Config(stub.getServerUrl());
+        config.setGzip(gzip);
+        httpConsumer = new HttpConsumer(config);
+        events = BenchmarkData.events(batchSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        httpConsumer.close();
+        stub.close();
+    }
+
+    @Benchmark
+    public void consume() throws IOException, HttpConsumerException {
+        httpConsumer.consume(events);
+    }
+}
@@ -0,0 +1,62 @@
+package cn.zalldigital.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 本地的数据接收服务，读取完请求体后返回 200，基准测试不需要访问网络
+ */
+public class HttpStub implements Closeable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public HttpStub() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.executor = Executors.newFixedThreadPool(8, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "HttpStub");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] buffer = new byte[8192];
+                try (InputStream in = exchange.getRequestBody()) {
+                    while (in.read(buffer) != -1) {
+                        // 丢弃请求体
+                    }
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return 数据接收地址
+     */
+    public String getServerUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/sa?project=default";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,36 @@
+package cn.zalldigital.benchmark;
+
+import cn.zalldigital.Event;
+import cn.zalldigital.consumer.Consumer;
+
+import java.util.Map;
+
+/**
+ * 丢弃所有数据，只用于测量 SDK 自身的开销
+ */
+public class NoopConsumer implements Consumer {
+
+    /**
+     * 保存最后一条数据，避免 JIT 消除 SDK 生成数据的过程
+     */
+    private volatile Object last;
+
+    @Override
+    public void send(Map<String, Object> message) {
+        last = message;
+    }
+
+    @Override
+    public void send(Event event) {
+        last = event;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+        last = null;
+    }
+}
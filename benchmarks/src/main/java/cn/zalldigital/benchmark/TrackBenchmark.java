@@ -0,0 +1,82 @@
+package cn.zalldigital.benchmark;
+
+import cn.zalldigital.Event;
+import cn.zalldigital.ZallDataAnalytics;
+import cn.zalldigital.exception.InvalidArgumentException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ZallDataAnalytics} 记录数据的开销（校验、合并公共属性、构建事件），Consumer 直接丢弃数据
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TrackBenchmark {
+
+    @Param({"false", "true"})
+    public boolean superProperties;
+
+    private ZallDataAnalytics za;
+
+    /**
+     * 属性对象不能在线程间复用，每个线程使用自己的属性
+     */
+    @State(Scope.Thread)
+    public static class ThreadProperties {
+        Map<String, Object> event = BenchmarkData.eventProperties();
+        Map<String, Object> profile = BenchmarkData.profileProperties();
+        Map<String, Object> item = BenchmarkData.itemProperties();
+    }
+
+    @Setup
+    public void setup() {
+        za = new ZallDataAnalytics(new NoopConsumer());
+        if (superProperties) {
+            za.registerSuperProperties(BenchmarkData.superProperties());
+        }
+    }
+
+    @Benchmark
+    public void track(ThreadProperties properties) throws InvalidArgumentException {
+        za.track(BenchmarkData.DISTINCT_ID, true, "ViewProduct", properties.event);
+    }
+
+    @Benchmark
+    public void trackBuilder() throws InvalidArgumentException {
+        za.track(Event.builder(BenchmarkData.DISTINCT_ID, true, "ViewProduct")
+                .property("$ip", "123.123.123.123")
+                .property("ProductId", "987654")
+                .property("ProductCatalog", "Numerical Code")
+                .property("ProductName", "Mechanical keyboard with 104 keys")
+                .property("isAddedToFav", true)
+                .property("Price", 666.66)
+                .property("Quantity", 3)
+                .property("Referrer", "https://www.example.com/search?q=keyboard"));
+    }
+
+    @Benchmark
+    public void profileSet(ThreadProperties properties) throws InvalidArgumentException {
+        za.profileSet(BenchmarkData.DISTINCT_ID, true, properties.profile);
+    }
+
+    @Benchmark
+    public void itemSet(ThreadProperties properties) throws InvalidArgumentException {
+        za.itemSet("product", "987654", properties.item);
+    }
+}
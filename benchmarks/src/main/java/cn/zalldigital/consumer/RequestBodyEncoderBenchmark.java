@@ -0,0 +1,64 @@
+package cn.zalldigital.consumer;
+
+import cn.zalldigital.Event;
+import cn.zalldigital.benchmark.BenchmarkData;
+import cn.zalldigital.exception.InvalidArgumentException;
+import org.apache.http.HttpEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpConsumer 请求体编码（JSON、gzip、Base64、表单转义）的开销，不发送请求。
+ * 与 {@link RequestBodyEncoder} 位于同一个包中以访问包内可见的类
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestBodyEncoderBenchmark {
+
+    @Param({"true", "false"})
+    public boolean gzip;
+
+    @Param({"50"})
+    public int batchSize;
+
+    private List<Event> events;
+
+    @Setup
+    public void setup() throws InvalidArgumentException {
+        events = BenchmarkData.events(batchSize);
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        RequestBodyEncoder encoder = RequestBodyEncoder.acquire();
+        try {
+            HttpEntity entity = encoder.encode(new RequestBodyEncoder.BodyWriter() {
+                @Override
+                public void writeTo(Writer writer) throws IOException {
+                    EventEncoder.write(events, writer);
+                }
+            }, gzip);
+            return entity.getContentLength();
+        } finally {
+            encoder.release();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package cn.zalldigital;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * 获取调用 SDK 的代码位置，用于填充 $lib_detail
+ * <p>
+ * Java 9 及以上版本通过 StackWalker 按需遍历调用栈，遇到第一个非 SDK 的栈帧即停止，不会生成完整的异常堆栈；
+ * 低版本 JDK 退化为 {@link Throwable#getStackTrace()}。格式化后的结果按调用位置缓存。
+ */
+final class CallSiteResolver {
+
+    private static final int MAX_CACHED_CALL_SITES = 4096;
+
+    private static final ConcurrentMap<StackTraceElement, String> CALL_SITE_CACHE = new ConcurrentHashMap<>();
+
+    private static final Object STACK_WALKER;
+    private static final MethodHandle WALK;
+    private static final MethodHandle GET_CLASS_NAME;
+    private static final MethodHandle TO_STACK_TRACE_ELEMENT;
+
+    static {
+        Object walker = null;
+        MethodHandle walk = null;
+        MethodHandle getClassName = null;
+        MethodHandle toStackTraceElement = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+            Class<?> frameClass = Class.forName("java.lang.StackWalker$StackFrame");
+            walker = walkerClass.getMethod("getInstance").invoke(null);
+            walk = lookup.findVirtual(walkerClass, "walk", MethodType.methodType(Object.class, Function.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, Function.class));
+            getClassName = lookup.findVirtual(frameClass, "getClassName", MethodType.methodType(String.class))
+                    .asType(MethodType.methodType(String.class, Object.class));
+            toStackTraceElement = lookup.findVirtual(frameClass, "toStackTraceElement",
+                    MethodType.methodType(StackTraceElement.class))
+                    .asType(MethodType.methodType(StackTraceElement.class, Object.class));
+        } catch (Throwable e) {
+            // Java 8 没有 StackWalker
+            walker = null;
+        }
+        STACK_WALKER = walker;
+        WALK = walk;
+        GET_CLASS_NAME = getClassName;
+        TO_STACK_TRACE_ELEMENT = toStackTraceElement;
+    }
+
+    private static final Function<Stream<Object>, Object> FIRST_CALLER_FRAME = new Function<Stream<Object>, Object>() {
+        @Override
+        public Object apply(Stream<Object> frames) {
+            Iterator<Object> it = frames.iterator();
+            while (it.hasNext()) {
+                Object frame = it.next();
+                String className;
+                try {
+                    className = (String) GET_CLASS_NAME.invokeExact(frame);
+                } catch (Throwable e) {
+                    return null;
+                }
+                if (!isSdkFrame(className)) {
+                    return frame;
+                }
+            }
+            return null;
+        }
+    };
+
+    private CallSiteResolver() {
+    }
+
+    /**
+     * @param mode $lib_detail 采集方式
+     * @return $lib_detail 的值，格式为 类名##方法名##文件名##行号；不采集或无法获取时返回 null
+     */
+    static String resolve(ZallDataAnalytics.LibDetailEnum mode) {
+        StackTraceElement caller;
+        switch (mode) {
+            case NONE:
+                return null;
+            case STACK_WALK:
+                caller = STACK_WALKER != null ? walkCaller() : traceCaller();
+                break;
+            default:
+                caller = traceCaller();
+                break;
+        }
+        return caller == null ? null : format(caller);
+    }
+
+    private static StackTraceElement walkCaller() {
+        try {
+            Object frame = WALK.invokeExact(STACK_WALKER, (Function) FIRST_CALLER_FRAME);
+            return frame == null ? null : (StackTraceElement) TO_STACK_TRACE_ELEMENT.invokeExact(frame);
+        } catch (Throwable e) {
+            return traceCaller();
+        }
+    }
+
+    private static StackTraceElement traceCaller() {
+        for (StackTraceElement element : new Exception().getStackTrace()) {
+            if (!isSdkFrame(element.getClassName())) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSdkFrame(String className) {
+        return className.equals(ZallDataAnalytics.class.getName())
+                || className.startsWith(CallSiteResolver.class.getName());
+    }
+
+    private static String format(StackTraceElement element) {
+        String detail = CALL_SITE_CACHE.get(element);
+        if (detail == null) {
+            detail = element.getClassName() + "##" + element.getMethodName() + "##" + element.getFileName() + "##"
+                    + element.getLineNumber();
+            if (CALL_SITE_CACHE.size() < MAX_CACHED_CALL_SITES) {
+                CALL_SITE_CACHE.putIfAbsent(element, detail);
+            }
+        }
+        return detail;
+    }
+}
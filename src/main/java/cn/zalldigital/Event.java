@@ -0,0 +1,512 @@
+package cn.zalldigital;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 一条待发送的数据（事件、用户属性或物品）
+ * <p>
+ * 固定字段（type、time、distinct_id 等）直接保存为成员变量，属性保存在紧凑的 key/value 数组中，
+ * 创建一条数据只需要常数次的内存分配。事件的公共属性只引用 {@link ZallDataAnalytics} 中的不可变快照，
+ * 在编码时才与事件属性合并（事件属性优先）。Event 创建后不可修改，可以安全地在线程间传递。
+ * <p>
+ * 旧的 {@link Map} 形式的数据可以通过 {@link #fromMap(Map)} 包装为 Event，也可以通过 {@link #toMap()} 转换回 Map。
+ */
+public final class Event {
+
+    public static final String LIB = "Java";
+    public static final String LIB_METHOD = "code";
+
+    private final String type;
+    private final long time;
+    private final String distinctId;
+    private final String eventName;
+    private final String originalId;
+    private final Integer distinctIdType;
+    private final String itemType;
+    private final String itemId;
+    private final String project;
+    private final boolean timeFree;
+    private final String[] propertyKeys;
+    private final Object[] propertyValues;
+    private final int propertyCount;
+    private final Map<String, Object> superProperties;
+    private final String appVersion;
+    private final String libDetail;
+
+    /**
+     * 通过 {@link #fromMap(Map)} 包装的原始数据
+     */
+    private final Map<String, Object> source;
+
+    private Event(Builder builder) {
+        this.type = builder.type;
+        this.time = builder.time;
+        this.distinctId = builder.distinctId;
+        this.eventName = builder.eventName;
+        this.originalId = builder.originalId;
+        this.distinctIdType = builder.distinctIdType;
+        this.itemType = builder.itemType;
+        this.itemId = builder.itemId;
+        this.project = builder.project;
+        this.timeFree = builder.timeFree;
+        this.propertyKeys = builder.propertyKeys;
+        this.propertyValues = builder.propertyValues;
+        this.propertyCount = builder.propertyCount;
+        this.superProperties = builder.superProperties;
+        this.appVersion = builder.appVersion;
+        this.libDetail = builder.libDetail;
+        this.source = null;
+    }
+
+    private Event(Map<String, Object> source) {
+        this.type = (String) source.get("type");
+        Object eventTime = source.get("time");
+        this.time = eventTime instanceof Number ? ((Number) eventTime).longValue() : 0L;
+        this.distinctId = (String) source.get("distinct_id");
+        this.eventName = (String) source.get("event");
+        this.originalId = (String) source.get("original_id");
+        this.distinctIdType = (Integer) source.get("distinctIdType");
+        this.itemType = (String) source.get("item_type");
+        this.itemId = (String) source.get("item_id");
+        this.project = (String) source.get("project");
+        this.timeFree = Boolean.TRUE.equals(source.get("time_free"));
+        this.propertyKeys = null;
+        this.propertyValues = null;
+        this.propertyCount = 0;
+        this.superProperties = null;
+        this.appVersion = null;
+        this.libDetail = null;
+        this.source = source;
+    }
+
+    /**
+     * 创建一个事件构建器，通过 {@link ZallDataAnalytics#track(Builder)} 发送
+     *
+     * @param distinctId 用户 ID
+     * @param isLoginId  用户 ID 是否是登录 ID，false 表示该 ID 是一个匿名 ID
+     * @param eventName  事件名称
+     * @return 事件构建器
+     */
+    public static Builder builder(String distinctId, boolean isLoginId, String eventName) {
+        Builder builder = new Builder().distinctId(distinctId).eventName(eventName);
+        if (isLoginId) {
+            builder.property("$is_login_id", true);
+        }
+        return builder;
+    }
+
+    /**
+     * 将 Map 形式的数据包装为 Event，编码时原样输出该 Map
+     *
+     * @param message Map 形式的数据
+     * @return 包装后的 Event
+     */
+    public static Event fromMap(Map<String, Object> message) {
+        return new Event(message);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getDistinctId() {
+        return distinctId;
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    public String getOriginalId() {
+        return originalId;
+    }
+
+    public Integer getDistinctIdType() {
+        return distinctIdType;
+    }
+
+    public String getItemType() {
+        return itemType;
+    }
+
+    public String getItemId() {
+        return itemId;
+    }
+
+    public String getProject() {
+        return project;
+    }
+
+    public boolean isTimeFree() {
+        return timeFree;
+    }
+
+    public int getPropertyCount() {
+        return propertyCount;
+    }
+
+    public String getPropertyKey(int index) {
+        return propertyKeys[index];
+    }
+
+    public Object getPropertyValue(int index) {
+        return propertyValues[index];
+    }
+
+    /**
+     * @param key 属性名
+     * @return 事件自身的属性（不包括公共属性）中是否包含该属性
+     */
+    public boolean containsProperty(String key) {
+        for (int i = 0; i < propertyCount; i++) {
+            if (propertyKeys[i].equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 事件引用的公共属性快照，不可修改；没有公共属性时返回 null
+     */
+    public Map<String, Object> getSuperProperties() {
+        return superProperties;
+    }
+
+    public String getAppVersion() {
+        return appVersion;
+    }
+
+    public String getLibDetail() {
+        return libDetail;
+    }
+
+    /**
+     * @return 通过 {@link #fromMap(Map)} 包装的原始数据，直接构建的 Event 返回 null
+     */
+    public Map<String, Object> getSource() {
+        return source;
+    }
+
+    /**
+     * 转换为旧版本 {@link cn.zalldigital.consumer.Consumer#send(Map)} 所使用的 Map 结构
+     *
+     * @return Map 形式的数据
+     */
+    public Map<String, Object> toMap() {
+        if (source != null) {
+            return source;
+        }
+
+        Map<String, Object> properties = new HashMap<>();
+        if (superProperties != null) {
+            properties.putAll(superProperties);
+        }
+        for (int i = 0; i < propertyCount; i++) {
+            properties.put(propertyKeys[i], propertyValues[i]);
+        }
+
+        Map<String, String> lib = new HashMap<>();
+        lib.put("$lib", LIB);
+        lib.put("$lib_version", ZallDataAnalytics.SDK_VERSION);
+        lib.put("$lib_method", LIB_METHOD);
+        if (appVersion != null) {
+            lib.put("$app_version", appVersion);
+        }
+        if (libDetail != null) {
+            lib.put("$lib_detail", libDetail);
+        }
+
+        Map<String, Object> event = new HashMap<>();
+        event.put("type", type);
+        event.put("time", time);
+        if (distinctId != null) {
+            event.put("distinct_id", distinctId);
+        }
+        event.put("properties", properties);
+        event.put("lib", lib);
+        if (project != null) {
+            event.put("project", project);
+        }
+        if (timeFree) {
+            event.put("time_free", true);
+        }
+        if (eventName != null) {
+            event.put("event", eventName);
+        }
+        if (originalId != null) {
+            event.put("original_id", originalId);
+        }
+        if (distinctIdType != null) {
+            event.put("distinctIdType", distinctIdType);
+        }
+        if (itemType != null) {
+            event.put("item_type", itemType);
+        }
+        if (itemId != null) {
+            event.put("item_id", itemId);
+        }
+        return event;
+    }
+
+    /**
+     * Event 构建器，调用 {@link #build()} 后不能再修改
+     */
+    public static final class Builder {
+        private String type;
+        private long time;
+        private boolean timeSet;
+        private String distinctId;
+        private String eventName;
+        private String originalId;
+        private Integer distinctIdType;
+        private String itemType;
+        private String itemId;
+        private String project;
+        private boolean timeFree;
+        private String[] propertyKeys;
+        private Object[] propertyValues;
+        private int propertyCount;
+        private Map<String, Object> superProperties;
+        private String appVersion;
+        private String libDetail;
+        private boolean built;
+
+        public Builder() {
+            this(8);
+        }
+
+        public Builder(int expectedProperties) {
+            int capacity = Math.max(4, expectedProperties);
+            this.propertyKeys = new String[capacity];
+            this.propertyValues = new Object[capacity];
+        }
+
+        public Builder type(String type) {
+            checkNotBuilt();
+            this.type = type;
+            return this;
+        }
+
+        /**
+         * 设置事件时间，未设置时使用发送时的系统时间
+         */
+        public Builder time(Date time) {
+            return time(time.getTime());
+        }
+
+        public Builder time(long time) {
+            checkNotBuilt();
+            this.time = time;
+            this.timeSet = true;
+            return this;
+        }
+
+        public Builder distinctId(String distinctId) {
+            checkNotBuilt();
+            this.distinctId = distinctId;
+            return this;
+        }
+
+        public Builder eventName(String eventName) {
+            checkNotBuilt();
+            this.eventName = eventName;
+            return this;
+        }
+
+        public Builder originalId(String originalId) {
+            checkNotBuilt();
+            this.originalId = originalId;
+            return this;
+        }
+
+        public Builder distinctIdType(Integer distinctIdType) {
+            checkNotBuilt();
+            this.distinctIdType = distinctIdType;
+            return this;
+        }
+
+        public Builder item(String itemType, String itemId) {
+            checkNotBuilt();
+            this.itemType = itemType;
+            this.itemId = itemId;
+            return this;
+        }
+
+        /**
+         * 设置数据导入的项目
+         */
+        public Builder project(String project) {
+            checkNotBuilt();
+            this.project = project;
+            return this;
+        }
+
+        public Builder timeFree(boolean timeFree) {
+            checkNotBuilt();
+            this.timeFree = timeFree;
+            return this;
+        }
+
+        public Builder appVersion(String appVersion) {
+            checkNotBuilt();
+            this.appVersion = appVersion;
+            return this;
+        }
+
+        public Builder libDetail(String libDetail) {
+            checkNotBuilt();
+            this.libDetail = libDetail;
+            return this;
+        }
+
+        /**
+         * 添加一个属性，已存在的同名属性会被覆盖。
+         * $time、$project 与 Map 形式的接口含义相同，分别设置事件时间和导入项目，不会作为属性发送。
+         *
+         * @param key   属性名
+         * @param value 属性值
+         * @return this
+         */
+        public Builder property(String key, Object value) {
+            checkNotBuilt();
+            if ("$time".equals(key) && value instanceof Date) {
+                return time((Date) value);
+            }
+            if ("$project".equals(key) && value instanceof String) {
+                this.project = (String) value;
+                return this;
+            }
+            if ("$distinctIdType".equals(key) && value instanceof Integer) {
+                this.distinctIdType = (Integer) value;
+            }
+            int index = indexOf(key);
+            if (index >= 0) {
+                propertyValues[index] = value;
+            } else {
+                appendProperty(key, value);
+            }
+            return this;
+        }
+
+        /**
+         * 添加多个属性，等价于逐个调用 {@link #property(String, Object)}
+         *
+         * @param properties 属性
+         * @return this
+         */
+        public Builder properties(Map<String, Object> properties) {
+            if (properties != null) {
+                for (Map.Entry<String, Object> entry : properties.entrySet()) {
+                    property(entry.getKey(), entry.getValue());
+                }
+            }
+            return this;
+        }
+
+        /**
+         * 添加 item 数据的属性。除 $project 外原样作为属性发送，$time 不会设置数据时间
+         */
+        Builder itemProperties(Map<String, Object> properties) {
+            checkNotBuilt();
+            if (properties != null) {
+                for (Map.Entry<String, Object> entry : properties.entrySet()) {
+                    String key = entry.getKey();
+                    Object value = entry.getValue();
+                    if ("$project".equals(key) && value instanceof String) {
+                        this.project = (String) value;
+                        continue;
+                    }
+                    int index = indexOf(key);
+                    if (index >= 0) {
+                        propertyValues[index] = value;
+                    } else {
+                        appendProperty(key, value);
+                    }
+                }
+            }
+            return this;
+        }
+
+        /**
+         * 设置公共属性快照，调用方需保证该 Map 不会再被修改
+         */
+        Builder superProperties(Map<String, Object> superProperties) {
+            checkNotBuilt();
+            this.superProperties = superProperties;
+            return this;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getDistinctId() {
+            return distinctId;
+        }
+
+        public String getEventName() {
+            return eventName;
+        }
+
+        public int getPropertyCount() {
+            return propertyCount;
+        }
+
+        public String getPropertyKey(int index) {
+            return propertyKeys[index];
+        }
+
+        public Object getPropertyValue(int index) {
+            return propertyValues[index];
+        }
+
+        void setPropertyValue(int index, Object value) {
+            propertyValues[index] = value;
+        }
+
+        /**
+         * @return 构建完成的 Event；未设置时间时使用当前时间
+         */
+        public Event build() {
+            checkNotBuilt();
+            if (!timeSet) {
+                time = System.currentTimeMillis();
+            }
+            built = true;
+            return new Event(this);
+        }
+
+        private int indexOf(String key) {
+            for (int i = 0; i < propertyCount; i++) {
+                if (propertyKeys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void appendProperty(String key, Object value) {
+            if (propertyCount == propertyKeys.length) {
+                propertyKeys = Arrays.copyOf(propertyKeys, propertyCount << 1);
+                propertyValues = Arrays.copyOf(propertyValues, propertyCount << 1);
+            }
+            propertyKeys[propertyCount] = key;
+            propertyValues[propertyCount] = value;
+            propertyCount++;
+        }
+
+        private void checkNotBuilt() {
+            if (built) {
+                throw new IllegalStateException("The event has already been built.");
+            }
+        }
+    }
+}
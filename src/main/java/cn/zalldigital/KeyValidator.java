@@ -0,0 +1,68 @@
+package cn.zalldigital;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 事件名、属性名等 key 的校验
+ * <p>
+ * 与正则 {@code ^((?!^distinct_id$|...|^datetime$)[a-zA-Z_$][a-zA-Z\d_$]{0,99})$}（忽略大小写）的校验结果完全一致，
+ * 但不使用正则。校验通过的 key 会放入所有 {@link ZallDataAnalytics} 实例共享的有界缓存中，重复出现的 key 只需一次哈希查找。
+ */
+final class KeyValidator {
+
+    private static final int MAX_KEY_LENGTH = 100;
+
+    private static final int MAX_CACHED_KEYS = 16384;
+
+    private static final String[] RESERVED_KEYS = {
+            "distinct_id", "original_id", "time", "properties", "id", "first_id", "second_id", "users", "events",
+            "event", "user_id", "date", "datetime"
+    };
+
+    private static final Set<String> VALID_KEYS = ConcurrentHashMap.newKeySet();
+
+    private KeyValidator() {
+    }
+
+    static boolean isValid(String key) {
+        if (VALID_KEYS.contains(key)) {
+            return true;
+        }
+        if (!check(key)) {
+            return false;
+        }
+        if (VALID_KEYS.size() < MAX_CACHED_KEYS) {
+            VALID_KEYS.add(key);
+        }
+        return true;
+    }
+
+    private static boolean check(String key) {
+        int length = key.length();
+        if (length < 1 || length > MAX_KEY_LENGTH) {
+            return false;
+        }
+        char first = key.charAt(0);
+        if (!isLetter(first) && first != '_' && first != '$') {
+            return false;
+        }
+        for (int i = 1; i < length; i++) {
+            char c = key.charAt(i);
+            if (!isLetter(c) && !(c >= '0' && c <= '9') && c != '_' && c != '$') {
+                return false;
+            }
+        }
+        for (String reserved : RESERVED_KEYS) {
+            // 此时 key 只包含 ASCII 字符，equalsIgnoreCase 与正则的忽略大小写语义一致
+            if (reserved.length() == length && reserved.equalsIgnoreCase(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
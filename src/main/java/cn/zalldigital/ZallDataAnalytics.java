@@ -4,28 +4,46 @@ import cn.zalldigital.consumer.Consumer;
 import cn.zalldigital.exception.InvalidArgumentException;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Pattern;
 
 public class ZallDataAnalytics {
 
-    public static final String SDK_VERSION = "1.0.0";
+    /**
+     * $lib_detail 的采集方式
+     */
+    public enum LibDetailEnum {
 
-    private static final Pattern KEY_PATTERN = Pattern.compile("^((?!^distinct_id$|^original_id$|^time$|^properties$|^id$|^first_id$|^second_id$|^users$|^events$|^event$|^user_id$|^date$|^datetime$)[a-zA-Z_$][a-zA-Z\\d_$]{0,99})$", Pattern.CASE_INSENSITIVE);
+        /** 不采集 $lib_detail */
+        NONE,
+
+        /** 通过异常堆栈获取调用位置，每次调用都会生成完整的调用栈 */
+        STACK_TRACE,
+
+        /** 按需遍历调用栈，找到调用位置即停止；Java 9 以下版本退化为 STACK_TRACE */
+        STACK_WALK
+    }
+
+    public static final String SDK_VERSION = "1.0.0";
 
     private final Consumer consumer;
 
-    private final Map<String, Object> superProperties;
+    /**
+     * 公共属性的不可变快照，修改时整体替换，事件直接引用当前快照并在编码时合并
+     */
+    private volatile Map<String, Object> superProperties;
 
     /**
      * 历史数据导入
      */
     private boolean enableTimeFree = false;
 
+    /**
+     * $lib_detail 采集方式
+     */
+    private LibDetailEnum libDetailMode = LibDetailEnum.STACK_WALK;
+
     public ZallDataAnalytics(final Consumer consumer) {
         this.consumer = consumer;
 
-        this.superProperties = new ConcurrentHashMap<>();
         clearSuperProperties();
     }
 
@@ -37,6 +55,19 @@ public class ZallDataAnalytics {
         this.enableTimeFree = enableTimeFree;
     }
 
+    public LibDetailEnum getLibDetailMode() {
+        return libDetailMode;
+    }
+
+    /**
+     * 设置 $lib_detail（调用 SDK 的类名、方法名、文件名和行号）的采集方式，默认为 {@link LibDetailEnum#STACK_WALK}
+     *
+     * @param libDetailMode $lib_detail 采集方式
+     */
+    public void setLibDetailMode(LibDetailEnum libDetailMode) {
+        this.libDetailMode = libDetailMode;
+    }
+
     /**
      * 设置每个事件都带有的一些公共属性
      * <p>
@@ -50,10 +81,15 @@ public class ZallDataAnalytics {
      *
      * @param superPropertiesMap 一个或多个公共属性
      */
-    public void registerSuperProperties(Map<String, Object> superPropertiesMap) {
+    public synchronized void registerSuperProperties(Map<String, Object> superPropertiesMap) {
+        Map<String, Object> snapshot = new HashMap<>(this.superProperties);
         for (Map.Entry<String, Object> item : superPropertiesMap.entrySet()) {
-            this.superProperties.put(item.getKey(), item.getValue());
+            if (item.getKey() == null || item.getValue() == null) {
+                throw new NullPointerException("The super property key and value should not be null.");
+            }
+            snapshot.put(item.getKey(), item.getValue());
         }
+        this.superProperties = Collections.unmodifiableMap(snapshot);
     }
 
     /**
@@ -74,6 +110,29 @@ public class ZallDataAnalytics {
         addEvent(distinctId, isLoginId, null, "track", eventName, properties);
     }
 
+    /**
+     * 记录通过 {@link Event#builder(String, boolean, String)} 构建的事件，属性取值规范与
+     * {@link #track(String, boolean, String, Map)} 相同。
+     * <p>
+     * 与 Map 形式的接口相比，不需要为每个事件创建属性 Map，适合调用频繁的场景。构建器在发送后不能再使用。
+     *
+     * @param builder 事件构建器
+     * @throws InvalidArgumentException eventName 或 properties 不符合命名规范和类型规范时抛出该异常
+     */
+    public void track(Event.Builder builder) throws InvalidArgumentException {
+        builder.type("track");
+        assertKey("Distinct Id", builder.getDistinctId());
+        assertKeyWithRegex("Event Name", builder.getEventName());
+        for (int i = 0; i < builder.getPropertyCount(); i++) {
+            Object value = builder.getPropertyValue(i);
+            Object checked = assertProperty("track", builder.getPropertyKey(i), value);
+            if (checked != value) {
+                builder.setPropertyValue(i, checked);
+            }
+        }
+        sendEvent(builder);
+    }
+
     /**
      * 记录用户注册事件
      * <p>
@@ -230,10 +289,11 @@ public class ZallDataAnalytics {
     /**
      * 清除公共属性
      */
-    public void clearSuperProperties() {
-        this.superProperties.clear();
-        this.superProperties.put("$lib", "Java");
-        this.superProperties.put("$lib_version", SDK_VERSION);
+    public synchronized void clearSuperProperties() {
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("$lib", "Java");
+        snapshot.put("$lib_version", SDK_VERSION);
+        this.superProperties = Collections.unmodifiableMap(snapshot);
     }
 
     /**
@@ -261,64 +321,35 @@ public class ZallDataAnalytics {
             assertKey("Original Distinct Id", originDistinceId);
         }
 
-        // Event time
-        long time = System.currentTimeMillis();
-        if (properties != null && properties.containsKey("$time")) {
-            Date eventTime = (Date) properties.get("$time");
-            properties.remove("$time");
-            time = eventTime.getTime();
-        }
+        Event.Builder builder = new Event.Builder(properties == null ? 4 : properties.size() + 1)
+                .type(actionType)
+                .distinctId(distinctId)
+                .properties(properties);
 
-        String eventProject = null;
-        if (properties != null && properties.containsKey("$project")) {
-            eventProject = (String) properties.get("$project");
-            properties.remove("$project");
-        }
-
-        Map<String, Object> eventProperties = new HashMap<>();
-        if ("track".equals(actionType) || "track_signup".equals(actionType)) {
-            eventProperties.putAll(superProperties);
-        }
-        if (properties != null) {
-            eventProperties.putAll(properties);
+        if ("track".equals(actionType)) {
+            builder.eventName(eventName);
+        } else if ("track_signup".equals(actionType)) {
+            builder.eventName(eventName).originalId(originDistinceId);
         }
 
         if (isLoginId) {
-            eventProperties.put("$is_login_id", true);
-        }
-
-        Map<String, String> libProperties = getLibProperties();
-
-        Map<String, Object> event = new HashMap<String, Object>();
-
-        event.put("type", actionType);
-        event.put("time", time);
-        event.put("distinct_id", distinctId);
-        event.put("properties", eventProperties);
-        event.put("lib", libProperties);
-
-        if (eventProject != null) {
-            event.put("project", eventProject);
+            builder.property("$is_login_id", true);
         }
 
-        if (enableTimeFree) {
-            event.put("time_free", true);
-        }
+        sendEvent(builder);
+    }
 
-        if ("track".equals(actionType)) {
-            event.put("event", eventName);
-        } else if ("track_signup".equals(actionType)) {
-            event.put("event", eventName);
-            event.put("original_id", originDistinceId);
+    private void sendEvent(Event.Builder builder) {
+        String actionType = builder.getType();
+        Map<String, Object> snapshot = this.superProperties;
+        if ("track".equals(actionType) || "track_signup".equals(actionType)) {
+            builder.superProperties(snapshot);
         }
 
-        //distinctIdType
-        Integer distinctIdType;
-        if (properties != null && properties.containsKey("$distinctIdType")) {
-            distinctIdType = (Integer) properties.get("$distinctIdType");
-            event.put("distinctIdType", distinctIdType);
-            properties.remove("$distinctIdType");
-        }
+        Event event = builder.timeFree(enableTimeFree)
+                .appVersion((String) snapshot.get("$app_version"))
+                .libDetail(CallSiteResolver.resolve(libDetailMode))
+                .build();
 
         this.consumer.send(event);
     }
@@ -330,53 +361,16 @@ public class ZallDataAnalytics {
         assertKey("Item Id", itemId);
         assertProperties(actionType, properties);
 
-        String eventProject = null;
-        if (properties != null && properties.containsKey("$project")) {
-            eventProject = (String) properties.get("$project");
-            properties.remove("$project");
-        }
-
-        Map<String, Object> eventProperties = new HashMap<String, Object>();
-        if (properties != null) {
-            eventProperties.putAll(properties);
-        }
-
-        Map<String, String> libProperties = getLibProperties();
-
-        Map<String, Object> record = new HashMap<String, Object>();
-        record.put("type", actionType);
-        record.put("time", System.currentTimeMillis());
-        record.put("properties", eventProperties);
-        record.put("lib", libProperties);
-
-        if (eventProject != null) {
-            record.put("project", eventProject);
-        }
-
-        record.put("item_type", itemType);
-        record.put("item_id", itemId);
-        this.consumer.send(record);
-    }
-
-    private Map<String, String> getLibProperties() {
-        Map<String, String> libProperties = new HashMap<String, String>();
-        libProperties.put("$lib", "Java");
-        libProperties.put("$lib_version", SDK_VERSION);
-        libProperties.put("$lib_method", "code");
-
-        if (this.superProperties.containsKey("$app_version")) {
-            libProperties.put("$app_version", (String) this.superProperties.get("$app_version"));
-        }
-
-        StackTraceElement[] trace = (new Exception()).getStackTrace();
-
-        if (trace.length > 3) {
-            StackTraceElement traceElement = trace[3];
-            libProperties.put("$lib_detail", String.format("%s##%s##%s##%s", traceElement.getClassName(),
-                    traceElement.getMethodName(), traceElement.getFileName(), traceElement.getLineNumber()));
-        }
+        Event event = new Event.Builder(properties == null ? 4 : properties.size())
+                .type(actionType)
+                .item(itemType, itemId)
+                .itemProperties(properties)
+                .time(System.currentTimeMillis())
+                .appVersion((String) this.superProperties.get("$app_version"))
+                .libDetail(CallSiteResolver.resolve(libDetailMode))
+                .build();
 
-        return libProperties;
+        this.consumer.send(event);
     }
 
     private void assertKey(String type, String key) throws InvalidArgumentException {
@@ -390,7 +384,7 @@ public class ZallDataAnalytics {
 
     private void assertKeyWithRegex(String type, String key) throws InvalidArgumentException {
         assertKey(type, key);
-        if (!(KEY_PATTERN.matcher(key).matches())) {
+        if (!KeyValidator.isValid(key)) {
             throw new InvalidArgumentException("The " + type + "'" + key + "' is invalid.");
         }
     }
@@ -401,61 +395,75 @@ public class ZallDataAnalytics {
         }
 
         for (Map.Entry<String, Object> property : properties.entrySet()) {
-            if ("$is_login_id".equals(property.getKey())) {
-                if (!(property.getValue() instanceof Boolean)) {
-                    throw new InvalidArgumentException("The property value of '$is_login_id' should be "
-                            + "Boolean.");
-                }
-                continue;
+            Object value = property.getValue();
+            Object checked = assertProperty(eventType, property.getKey(), value);
+            if (checked != value) {
+                property.setValue(checked);
             }
+        }
+    }
 
-            assertKeyWithRegex("property", property.getKey());
-
-            if (!(property.getValue() instanceof Number) && !(property.getValue() instanceof Date) && !
-                    (property.getValue() instanceof String) && !(property.getValue() instanceof Boolean) &&
-                    !(property.getValue() instanceof List<?>)) {
-                throw new InvalidArgumentException("The property '" + property.getKey() + "' should be a basic type: "
-                        + "Number, String, Date, Boolean, List<String>.");
+    /**
+     * 校验单个属性
+     *
+     * @return 校验后的属性值，超长的字符串会被截断
+     */
+    private Object assertProperty(String eventType, String key, Object value) throws InvalidArgumentException {
+        if ("$is_login_id".equals(key)) {
+            if (!(value instanceof Boolean)) {
+                throw new InvalidArgumentException("The property value of '$is_login_id' should be "
+                        + "Boolean.");
             }
+            return value;
+        }
 
-            if ("$time".equals(property.getKey()) && !(property.getValue() instanceof Date)) {
-                throw new InvalidArgumentException(
-                        "The property '$time' should be a java.util.Date.");
-            }
+        assertKeyWithRegex("property", key);
 
-            // List 类型的属性值，List 元素必须为 String 类型
-            if (property.getValue() instanceof List<?>) {
-                for (final ListIterator<Object> it = ((List<Object>) property.getValue()).listIterator
-                        (); it.hasNext(); ) {
-                    Object element = it.next();
-                    if (!(element instanceof String)) {
-                        throw new InvalidArgumentException("The property '" + property.getKey() + "' should be a list of String.");
-                    }
-                    if (((String) element).length() > 8192) {
-                        it.set(((String) element).substring(0, 8192));
-                    }
+        if (!(value instanceof Number) && !(value instanceof Date) && !
+                (value instanceof String) && !(value instanceof Boolean) &&
+                !(value instanceof List<?>)) {
+            throw new InvalidArgumentException("The property '" + key + "' should be a basic type: "
+                    + "Number, String, Date, Boolean, List<String>.");
+        }
+
+        if ("$time".equals(key) && !(value instanceof Date)) {
+            throw new InvalidArgumentException(
+                    "The property '$time' should be a java.util.Date.");
+        }
+
+        // List 类型的属性值，List 元素必须为 String 类型
+        if (value instanceof List<?>) {
+            for (final ListIterator<Object> it = ((List<Object>) value).listIterator
+                    (); it.hasNext(); ) {
+                Object element = it.next();
+                if (!(element instanceof String)) {
+                    throw new InvalidArgumentException("The property '" + key + "' should be a list of String.");
+                }
+                if (((String) element).length() > 8192) {
+                    it.set(((String) element).substring(0, 8192));
                 }
             }
+        }
 
-            // String 类型的属性值，长度不能超过 8192
-            if (property.getValue() instanceof String) {
-                String value = (String) property.getValue();
-                if (value.length() > 8192) {
-                    property.setValue(value.substring(0, 8192));
-                }
+        // String 类型的属性值，长度不能超过 8192
+        if (value instanceof String) {
+            String stringValue = (String) value;
+            if (stringValue.length() > 8192) {
+                value = stringValue.substring(0, 8192);
             }
+        }
 
-            if ("profile_increment".equals(eventType)) {
-                if (!(property.getValue() instanceof Number)) {
-                    throw new InvalidArgumentException("The property value of PROFILE_INCREMENT should be a "
-                            + "Number.");
-                }
-            } else if ("profile_append".equals(eventType)) {
-                if (!(property.getValue() instanceof List<?>)) {
-                    throw new InvalidArgumentException("The property value of PROFILE_INCREMENT should be a "
-                            + "List<String>.");
-                }
+        if ("profile_increment".equals(eventType)) {
+            if (!(value instanceof Number)) {
+                throw new InvalidArgumentException("The property value of PROFILE_INCREMENT should be a "
+                        + "Number.");
+            }
+        } else if ("profile_append".equals(eventType)) {
+            if (!(value instanceof List<?>)) {
+                throw new InvalidArgumentException("The property value of PROFILE_INCREMENT should be a "
+                        + "List<String>.");
             }
         }
+        return value;
     }
 }
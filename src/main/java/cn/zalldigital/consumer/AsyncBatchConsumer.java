@@ -0,0 +1,463 @@
+package cn.zalldigital.consumer;
+
+import cn.zalldigital.Event;
+import cn.zalldigital.exception.CircuitBreakerOpenException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * 异步批量发送数据的 Consumer
+ * <p>
+ * send 只将数据放入有界队列，由后台发送线程组装批次并完成序列化、压缩和网络请求，调用方线程不会被网络请求阻塞。
+ * 队列已满时按 {@link BackpressurePolicy} 处理，默认丢弃新数据，丢弃数量可通过 {@link #getDroppedCount()} 获取。
+ * <p>
+ * 多个发送线程默认共用一个队列，数据的发送顺序不确定。开启 {@link Config#setPartitionByDistinctId(boolean)} 后，
+ * 每个发送线程有单独的队列，数据按 distinct_id 分配到固定的队列，同一个用户的数据按放入的顺序发送。
+ */
+public class AsyncBatchConsumer implements Consumer {
+
+    /**
+     * AsyncBatchConsumer 的配置信息
+     */
+    public static class Config {
+        HttpConsumer.Config httpConfig;
+        int bulkSize = 50;
+        int queueCapacity = 10000;
+        int senderThreads = 1;
+        int maxInFlight = 1;
+        boolean partitionByDistinctId;
+        BackpressurePolicy backpressurePolicy = BackpressurePolicy.dropNewest();
+
+        /**
+         * 创建指定数据接收地址的 AsyncBatchConsumer 配置
+         *
+         * @param serverUrl 数据接收地址
+         */
+        public Config(String serverUrl) {
+            this.httpConfig = new HttpConsumer.Config(serverUrl);
+        }
+
+        /**
+         * 使用指定的 HttpConsumer 配置（重试、熔断等）创建 AsyncBatchConsumer 配置
+         *
+         * @param httpConfig HttpConsumer 配置
+         */
+        public Config(HttpConsumer.Config httpConfig) {
+            this.httpConfig = httpConfig;
+        }
+
+        /**
+         * 设置请求头
+         *
+         * @param httpHeaders 请求头
+         */
+        public void setHttpHeaders(Map<String, String> httpHeaders) {
+            this.httpConfig.setHttpHeaders(httpHeaders);
+        }
+
+        /**
+         * 设置每个批次的最大数据条数
+         *
+         * @param bulkSize 批次大小
+         */
+        public void setBulkSize(int bulkSize) {
+            this.bulkSize = bulkSize;
+        }
+
+        /**
+         * 设置缓存队列容量，队列已满时按 {@link #setBackpressurePolicy(BackpressurePolicy)} 设置的策略处理
+         *
+         * @param queueCapacity 队列容量
+         */
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        /**
+         * 设置后台发送线程数
+         *
+         * @param senderThreads 发送线程数
+         */
+        public void setSenderThreads(int senderThreads) {
+            this.senderThreads = senderThreads;
+        }
+
+        /**
+         * 设置同时进行中的最大请求数。大于 1 时使用 {@link AsyncHttpConsumer} 非阻塞发送，
+         * 单个发送线程即可保持多个请求同时进行，适合网络延迟较高的场景。两种方式使用相同的重试策略和熔断配置
+         *
+         * @param maxInFlight 最大请求数，默认 1，即每个发送线程同步等待请求完成
+         */
+        public void setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        /**
+         * 设置是否按 distinct_id 分配发送线程。开启后每个发送线程有单独的队列，容量为 queueCapacity / senderThreads，
+         * 同一个用户的数据（例如 profile_set、profile_increment、track_signup）由同一个线程按放入的顺序依次发送，
+         * 不同用户的数据由多个线程并行发送。没有 distinct_id 的 item 数据按 item_type 和 item_id 分配。
+         * <p>
+         * 开启后每个发送线程等待上一个请求完成再发送下一个批次，发送线程数大于 1 时不能同时设置大于 1 的 maxInFlight；
+         * 所有发送线程共用一个连接池，每个数据接收地址的最大连接数不少于发送线程数。
+         * 重试或熔断期间后续批次等待，不会越过失败的批次。转存到本地磁盘（SPILL）和丢弃的数据不保证顺序
+         *
+         * @param partitionByDistinctId 是否按 distinct_id 分配，默认 false
+         */
+        public void setPartitionByDistinctId(boolean partitionByDistinctId) {
+            this.partitionByDistinctId = partitionByDistinctId;
+        }
+
+        /**
+         * 设置队列已满时的处理策略
+         *
+         * @param backpressurePolicy 处理策略，默认丢弃新数据
+         */
+        public void setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+            this.backpressurePolicy = backpressurePolicy;
+        }
+    }
+
+    private static final long POLL_TIMEOUT_MS = 1000;
+    private static final long MIN_CIRCUIT_WAIT_MS = 100;
+
+    /**
+     * 发送队列。未按 distinct_id 分配时只有一个队列，由所有发送线程共用；否则每个发送线程对应一个队列
+     */
+    private final QueueBuffer[] lanes;
+    private final BackpressurePolicy backpressurePolicy;
+    private final SpillStore spillStore;
+    private final HttpConsumer httpConsumer;
+    private final AsyncHttpConsumer asyncHttpConsumer;
+    private final int bulkSize;
+    private final Thread[] senders;
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong processedCount = new AtomicLong();
+    private final ConsumerMetrics metrics = new ConsumerMetrics("AsyncBatchConsumer");
+    private final Object progressLock = new Object();
+    private volatile boolean running = true;
+
+    public AsyncBatchConsumer(final String serverUrl) {
+        this(new Config(serverUrl));
+    }
+
+    public AsyncBatchConsumer(final Config config) {
+        int senderThreads = Math.max(1, config.senderThreads);
+        int queueCapacity = Math.max(1, config.queueCapacity);
+        if (config.partitionByDistinctId && senderThreads > 1) {
+            this.lanes = new QueueBuffer[senderThreads];
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = new QueueBuffer(Math.max(1, queueCapacity / senderThreads));
+            }
+        } else {
+            this.lanes = new QueueBuffer[]{new QueueBuffer(queueCapacity)};
+        }
+        this.backpressurePolicy = config.backpressurePolicy;
+        if (lanes.length > 1 && config.maxInFlight > 1) {
+            throw new IllegalArgumentException("maxInFlight can not be used together with partitionByDistinctId.");
+        }
+        if (config.maxInFlight > 1) {
+            AsyncHttpConsumer.Config asyncConfig = new AsyncHttpConsumer.Config(config.httpConfig);
+            asyncConfig.setMaxInFlight(config.maxInFlight);
+            this.httpConsumer = null;
+            this.asyncHttpConsumer = new AsyncHttpConsumer(asyncConfig, metrics);
+        } else {
+            // 按 distinct_id 分配时每个发送线程同时占用一个连接，连接池不足时发送线程会相互等待
+            this.httpConsumer = new HttpConsumer(config.httpConfig.withMinConnections(lanes.length), metrics);
+            this.asyncHttpConsumer = null;
+        }
+        this.bulkSize = Math.max(1, config.bulkSize);
+        this.spillStore = backpressurePolicy.getStrategy() == BackpressurePolicy.StrategyEnum.SPILL
+                ? new SpillStore(backpressurePolicy, config.httpConfig, bulkSize, metrics) : null;
+        this.senders = new Thread[senderThreads];
+        for (int i = 0; i < senders.length; i++) {
+            senders[i] = new Thread(new Sender(lanes[i % lanes.length].queue), "ZallDataAnalytics-AsyncBatchConsumer-" + i);
+            senders[i].setDaemon(true);
+            senders[i].start();
+        }
+    }
+
+    @Override
+    public void send(Map<String, Object> message) {
+        send(Event.fromMap(message));
+    }
+
+    @Override
+    public void send(Event message) {
+        metrics.addAccepted(1);
+        if (!running || !backpressurePolicy.admit(laneOf(message), message, message)) {
+            metrics.addDropped(1);
+        }
+    }
+
+    /**
+     * 等待调用前已放入队列的数据全部处理完成
+     */
+    @Override
+    public void flush() {
+        final long target = enqueuedCount.get();
+        long start = System.nanoTime();
+        if (spillStore != null) {
+            spillStore.flush();
+        }
+        synchronized (progressLock) {
+            while (processedCount.get() < target && isSenderAlive()) {
+                try {
+                    progressLock.wait(POLL_TIMEOUT_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        metrics.getFlushLatency().record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (Thread sender : senders) {
+            try {
+                sender.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (spillStore != null) {
+            spillStore.close();
+        }
+        if (asyncHttpConsumer != null) {
+            asyncHttpConsumer.close();
+        } else {
+            httpConsumer.close();
+        }
+        metrics.unregisterMBean();
+    }
+
+    /**
+     * @return 因队列已满、抽样或 Consumer 已关闭而丢弃的数据条数
+     */
+    public long getDroppedCount() {
+        return metrics.getDroppedEvents();
+    }
+
+    /**
+     * @return 发送失败的数据条数
+     */
+    public long getFailedCount() {
+        return metrics.getFailedEvents();
+    }
+
+    /**
+     * @return 当前队列中等待发送的数据条数
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (QueueBuffer lane : lanes) {
+            size += lane.queue.size();
+        }
+        return size;
+    }
+
+    @Override
+    public ConsumerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return 熔断器状态
+     */
+    public HttpConsumer.CircuitStateEnum getCircuitState() {
+        return asyncHttpConsumer != null ? asyncHttpConsumer.getCircuitState() : httpConsumer.getCircuitState();
+    }
+
+    /**
+     * 按 distinct_id 选择队列，item 数据按 item_type 和 item_id 选择
+     */
+    private QueueBuffer laneOf(Event event) {
+        if (lanes.length == 1) {
+            return lanes[0];
+        }
+        int hash;
+        if (event.getDistinctId() != null) {
+            hash = event.getDistinctId().hashCode();
+        } else if (event.getItemId() != null) {
+            hash = 31 * String.valueOf(event.getItemType()).hashCode() + event.getItemId().hashCode();
+        } else {
+            return lanes[0];
+        }
+        // 打散 hashCode 的低位，避免相近的 ID 集中到少数队列
+        hash ^= hash >>> 16;
+        return lanes[(hash & Integer.MAX_VALUE) % lanes.length];
+    }
+
+    private boolean isSenderAlive() {
+        for (Thread sender : senders) {
+            if (sender.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void sendBatch(List<Event> batch) {
+        final int size = batch.size();
+        CompletableFuture<Void> result;
+        try {
+            result = consumeWhenAvailable(batch);
+        } catch (Exception e) {
+            onBatchDone(size, e);
+            return;
+        }
+        if (result == null) {
+            onBatchDone(size, null);
+            return;
+        }
+        result.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void ignored, Throwable error) {
+                onBatchDone(size, error);
+            }
+        });
+    }
+
+    private void onBatchDone(int size, Throwable error) {
+        if (error != null) {
+            metrics.addFailed(size);
+            error.printStackTrace();
+        } else {
+            metrics.addSent(size);
+        }
+        onProcessed(size);
+    }
+
+    private void onProcessed(int size) {
+        metrics.addBuffered(-size, 0);
+        processedCount.addAndGet(size);
+        synchronized (progressLock) {
+            progressLock.notifyAll();
+        }
+    }
+
+    /**
+     * 熔断器打开期间保留当前批次并等待，新数据继续缓存在队列中；Consumer 关闭后不再等待
+     *
+     * @return 非阻塞发送时返回发送结果，同步发送时返回 null
+     */
+    private CompletableFuture<Void> consumeWhenAvailable(List<Event> batch) throws Exception {
+        while (true) {
+            try {
+                if (asyncHttpConsumer != null) {
+                    // 发送线程会复用 batch，请求完成前需要保留一份副本
+                    return asyncHttpConsumer.consume(new ArrayList<>(batch));
+                }
+                httpConsumer.consume(batch);
+                return null;
+            } catch (CircuitBreakerOpenException e) {
+                if (!running) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(Math.min(Math.max(e.getRetryDelay(), MIN_CIRCUIT_WAIT_MS), POLL_TIMEOUT_MS));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * 发送队列，由 {@link BackpressurePolicy} 决定队列已满时的处理方式
+     */
+    private class QueueBuffer implements BackpressurePolicy.Buffer<Event> {
+
+        private final BlockingQueue<Event> queue;
+        private final int queueCapacity;
+
+        QueueBuffer(int queueCapacity) {
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.queueCapacity = queueCapacity;
+        }
+
+        @Override
+        public boolean offer(Event item) {
+            if (!queue.offer(item)) {
+                return false;
+            }
+            onEnqueued();
+            return true;
+        }
+
+        @Override
+        public boolean offer(Event item, long timeoutNanos) throws InterruptedException {
+            if (!queue.offer(item, timeoutNanos, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+            onEnqueued();
+            return true;
+        }
+
+        @Override
+        public boolean dropOldest() {
+            if (queue.poll() == null) {
+                return false;
+            }
+            metrics.addDropped(1);
+            onProcessed(1);
+            return true;
+        }
+
+        @Override
+        public boolean isNearlyFull() {
+            return queue.size() >= queueCapacity * BackpressurePolicy.SAMPLE_THRESHOLD;
+        }
+
+        @Override
+        public boolean spill(Event event) {
+            return spillStore != null && spillStore.spill(event);
+        }
+
+        private void onEnqueued() {
+            enqueuedCount.incrementAndGet();
+            metrics.addBuffered(1, 0);
+        }
+    }
+
+    private class Sender implements Runnable {
+
+        private final BlockingQueue<Event> queue;
+
+        Sender(BlockingQueue<Event> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            final List<Event> batch = new ArrayList<>(bulkSize);
+            while (running || !queue.isEmpty()) {
+                Event first;
+                try {
+                    first = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, bulkSize - 1);
+                sendBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+}
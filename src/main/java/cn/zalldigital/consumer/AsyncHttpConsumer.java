@@ -0,0 +1,368 @@
+package cn.zalldigital.consumer;
+
+import cn.zalldigital.Event;
+import cn.zalldigital.exception.CircuitBreakerOpenException;
+import cn.zalldigital.exception.HttpConsumerException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.util.EntityUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 非阻塞的 HTTP 发送
+ * <p>
+ * 基于 HttpAsyncClient，由少量 I/O 线程同时处理最多 maxInFlight 个请求，发送结果通过 {@link CompletableFuture} 返回。
+ * 进行中的请求数达到上限时 {@link #consume(List)} 阻塞，直到有请求完成。
+ * <p>
+ * 使用 {@link HttpConsumer.Config} 中的数据接收地址、请求头、压缩、连接池、超时、重试和熔断配置。网络异常、5xx 和 429
+ * 状态码按与 {@link HttpConsumer} 相同的退避时间重试，退避期间由单独的定时线程等待，不占用 I/O 线程；
+ * 请求在重试结束前一直计入进行中的请求数。
+ */
+public class AsyncHttpConsumer implements Closeable {
+
+    /**
+     * AsyncHttpConsumer 的配置信息
+     */
+    public static class Config {
+        HttpConsumer.Config httpConfig;
+        int maxInFlight = 8;
+        int ioThreads = 1;
+
+        /**
+         * 创建指定数据接收地址的 AsyncHttpConsumer 配置
+         *
+         * @param serverUrl 数据接收地址
+         */
+        public Config(String serverUrl) {
+            this.httpConfig = new HttpConsumer.Config(serverUrl);
+        }
+
+        /**
+         * 使用指定的 HttpConsumer 配置创建 AsyncHttpConsumer 配置
+         *
+         * @param httpConfig HttpConsumer 配置
+         */
+        public Config(HttpConsumer.Config httpConfig) {
+            this.httpConfig = httpConfig;
+        }
+
+        /**
+         * 设置同时进行中的最大请求数
+         *
+         * @param maxInFlight 最大请求数，默认 8
+         */
+        public void setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        /**
+         * 设置 I/O 线程数
+         *
+         * @param ioThreads I/O 线程数，默认 1
+         */
+        public void setIoThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+        }
+    }
+
+    private final CloseableHttpAsyncClient httpClient;
+    private final HttpConsumer.Config httpConfig;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final CircuitBreaker circuitBreaker;
+    private final ConsumerMetrics metrics;
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final ScheduledExecutorService retryExecutor;
+
+    public AsyncHttpConsumer(final Config config) {
+        this(config, new ConsumerMetrics("AsyncHttpConsumer"));
+    }
+
+    /**
+     * 使用外层 Consumer 的运行指标，记录序列化、压缩和请求的耗时
+     */
+    AsyncHttpConsumer(final Config config, final ConsumerMetrics metrics) {
+        this.metrics = metrics;
+        this.httpConfig = config.httpConfig;
+        this.maxInFlight = Math.max(1, config.maxInFlight);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.circuitBreaker = httpConfig.circuitBreakerThreshold > 0
+                ? new CircuitBreaker(httpConfig.circuitBreakerThreshold, httpConfig.circuitBreakerOpenDuration) : null;
+        this.maxAttempts = Math.max(1, httpConfig.maxAttempts);
+        this.initialBackoff = Math.max(1, httpConfig.initialBackoff);
+        this.maxBackoff = Math.max(this.initialBackoff, httpConfig.maxBackoff);
+        this.retryExecutor = maxAttempts > 1 ? Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ZallDataAnalytics-AsyncHttpConsumer-Retry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(httpConfig.connectTimeout)
+                .setSocketTimeout(httpConfig.socketTimeout)
+                .setConnectionRequestTimeout(httpConfig.connectionRequestTimeout)
+                .build();
+        HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+                .setUserAgent(HttpConsumer.USER_AGENT)
+                .setMaxConnTotal(Math.max(1, httpConfig.maxConnTotal))
+                .setMaxConnPerRoute(Math.max(1, httpConfig.maxConnPerRoute))
+                .setDefaultRequestConfig(requestConfig)
+                .setDefaultIOReactorConfig(IOReactorConfig.custom().setIoThreadCount(Math.max(1, config.ioThreads)).build());
+        if (httpConfig.keepAlive >= 0) {
+            builder.setKeepAliveStrategy(new HttpConsumer.KeepAliveStrategy(httpConfig.keepAlive));
+        }
+        this.httpClient = builder.build();
+        this.httpClient.start();
+    }
+
+    /**
+     * 异步发送一批数据，请求完成前调用方不能修改 messages
+     *
+     * @param messages 待发送的数据
+     * @return 发送结果，失败时以 {@link IOException} 或 {@link HttpConsumerException} 结束
+     * @throws InterruptedException        等待进行中的请求完成时被中断
+     * @throws CircuitBreakerOpenException 熔断器处于打开状态，请求未发出
+     * @throws IOException                 请求体编码失败
+     */
+    public CompletableFuture<Void> consume(final List<Event> messages) throws InterruptedException, IOException {
+        inFlight.acquire();
+        final RequestBodyEncoder encoder = RequestBodyEncoder.acquire();
+        boolean submitted = false;
+        long bufferedBytes = 0;
+        try {
+            long start = System.nanoTime();
+            final HttpEntity entity = encoder.encode(new RequestBodyEncoder.BodyWriter() {
+                @Override
+                public void writeTo(Writer writer) throws IOException {
+                    EventEncoder.write(messages, writer);
+                }
+            }, httpConfig.gzipFlag);
+            long compressNanos = encoder.getCompressNanos();
+            metrics.getSerializeLatency().record(System.nanoTime() - start - compressNanos);
+            if (httpConfig.gzipFlag) {
+                metrics.getCompressLatency().record(compressNanos);
+            }
+
+            if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+                long retryDelay = circuitBreaker.getRetryDelay();
+                throw new CircuitBreakerOpenException(
+                        String.format("Circuit breaker is open, retry after %d ms.", retryDelay), retryDelay);
+            }
+
+            Request request = new Request(messages, entity, encoder);
+            bufferedBytes = request.bytes;
+            metrics.addBuffered(0, request.bytes);
+            request.execute();
+            submitted = true;
+            return request.result;
+        } finally {
+            if (!submitted) {
+                metrics.addBuffered(0, -bufferedBytes);
+                encoder.release();
+                inFlight.release();
+            }
+        }
+    }
+
+    /**
+     * 等待所有进行中的请求完成
+     *
+     * @throws InterruptedException 等待时被中断
+     */
+    public void awaitInFlight() throws InterruptedException {
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+    }
+
+    /**
+     * @return 当前进行中的请求数
+     */
+    public int getInFlightCount() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * @return 熔断器状态，未开启熔断器时始终为 {@link HttpConsumer.CircuitStateEnum#CLOSED}
+     */
+    public HttpConsumer.CircuitStateEnum getCircuitState() {
+        return circuitBreaker == null ? HttpConsumer.CircuitStateEnum.CLOSED : circuitBreaker.getState();
+    }
+
+    /**
+     * @return 运行指标，被 AsyncBatchConsumer 使用时与其共用
+     */
+    public ConsumerMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void execute(HttpEntity entity, FutureCallback<HttpResponse> callback) {
+        try {
+            httpClient.execute(HttpConsumer.newHttpPost(httpConfig.serverUrl, httpConfig.httpHeaders, entity), callback);
+        } catch (RuntimeException e) {
+            onResponse(false);
+            throw e;
+        }
+    }
+
+    private void onResponse(boolean success) {
+        if (circuitBreaker == null) {
+            return;
+        }
+        if (success) {
+            circuitBreaker.onSuccess();
+        } else {
+            circuitBreaker.onFailure();
+        }
+    }
+
+    /**
+     * 一个批次的发送过程，每次尝试的结果计入熔断器和请求指标，可重试的失败延迟后由定时线程重新发送
+     */
+    private class Request implements FutureCallback<HttpResponse>, Runnable {
+        final List<Event> messages;
+        final HttpEntity entity;
+        final RequestBodyEncoder encoder;
+        final long bytes;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        int attempt;
+        long attemptStart;
+
+        Request(List<Event> messages, HttpEntity entity, RequestBodyEncoder encoder) {
+            this.messages = messages;
+            this.entity = entity;
+            this.encoder = encoder;
+            this.bytes = entity.getContentLength();
+        }
+
+        void execute() {
+            attempt++;
+            attemptStart = System.nanoTime();
+            AsyncHttpConsumer.this.execute(entity, this);
+        }
+
+        @Override
+        public void completed(HttpResponse response) {
+            int httpStatusCode = response.getStatusLine().getStatusCode();
+            boolean success = httpStatusCode >= 200 && httpStatusCode < 300;
+            // 先更新熔断器，读取响应内容失败时探测请求的结果也不会丢失；服务端可以正常响应的状态码不计入失败次数
+            onResponse(success || !HttpConsumer.isRetryable(httpStatusCode));
+            metrics.addRequest(bytes, System.nanoTime() - attemptStart, success);
+            if (success) {
+                finish(null);
+                return;
+            }
+            Exception error;
+            try {
+                String httpContent = response.getEntity() == null ? ""
+                        : new String(EntityUtils.toByteArray(response.getEntity()), StandardCharsets.UTF_8);
+                error = new HttpConsumerException(String.format(
+                        "Unexpected response %d from Zall Data Analytics: %s", httpStatusCode, httpContent),
+                        EventEncoder.toJson(messages), httpStatusCode, httpContent);
+            } catch (Exception e) {
+                error = e;
+            }
+            if (HttpConsumer.isRetryable(httpStatusCode)) {
+                retryOrFinish(error);
+            } else {
+                finish(error);
+            }
+        }
+
+        @Override
+        public void failed(Exception e) {
+            onResponse(false);
+            metrics.addRequest(bytes, System.nanoTime() - attemptStart, false);
+            retryOrFinish(e);
+        }
+
+        @Override
+        public void cancelled() {
+            onResponse(false);
+            metrics.addRequest(bytes, System.nanoTime() - attemptStart, false);
+            finish(new CancellationException("Request cancelled."));
+        }
+
+        /**
+         * 定时线程重新发送
+         */
+        @Override
+        public void run() {
+            try {
+                execute();
+            } catch (RuntimeException e) {
+                finish(e);
+            }
+        }
+
+        /**
+         * 未达到最大尝试次数且熔断器允许时延迟后重试，否则以最后一次的错误结束
+         */
+        private void retryOrFinish(Exception error) {
+            if (attempt >= maxAttempts || (circuitBreaker != null && !circuitBreaker.allowRequest())) {
+                finish(error);
+                return;
+            }
+            try {
+                retryExecutor.schedule(this, HttpConsumer.backoffDelay(initialBackoff, maxBackoff, attempt),
+                        TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                finish(error);
+            }
+        }
+
+        private void finish(Exception error) {
+            metrics.addBuffered(0, -bytes);
+            encoder.release();
+            inFlight.release();
+            if (error == null) {
+                result.complete(null);
+            } else {
+                result.completeExceptionally(error);
+            }
+        }
+    }
+
+    /**
+     * 等待进行中的请求（包括等待重试的请求）完成后关闭
+     */
+    @Override
+    public void close() {
+        try {
+            awaitInFlight();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (retryExecutor != null) {
+            retryExecutor.shutdownNow();
+        }
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
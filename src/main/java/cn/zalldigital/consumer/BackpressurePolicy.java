@@ -0,0 +1,246 @@
+package cn.zalldigital.consumer;
+
+import cn.zalldigital.Event;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存已满时的处理策略
+ * <p>
+ * 用于 {@link BatchConsumer}、{@link AsyncBatchConsumer} 和 {@link LoggerConsumer}，在数据接收端或磁盘变慢、缓存写满时
+ * 决定新数据的去向，避免调用方线程被长时间阻塞或内存无限增长。每个策略对象分别统计丢弃和转存的数据条数，
+ * 多个 Consumer 共用同一个策略对象时计数合并。
+ */
+public final class BackpressurePolicy {
+
+    /**
+     * 缓存已满时的处理方式
+     */
+    public enum StrategyEnum {
+
+        /** 等待缓存腾出空间，超时后丢弃新数据 */
+        BLOCK,
+
+        /** 直接丢弃新数据 */
+        DROP_NEWEST,
+
+        /** 丢弃缓存中最早的数据，放入新数据 */
+        DROP_OLDEST,
+
+        /** 缓存使用超过 80% 后按事件名称抽样丢弃新数据，缓存写满后丢弃所有新数据 */
+        SAMPLE,
+
+        /** 将新数据转存到本地磁盘，由后台线程直接发送 */
+        SPILL
+    }
+
+    /**
+     * Consumer 的缓存，由策略决定如何放入数据
+     */
+    interface Buffer<T> {
+
+        /**
+         * 缓存未满时放入数据
+         */
+        boolean offer(T item);
+
+        /**
+         * 等待缓存腾出空间后放入数据
+         */
+        boolean offer(T item, long timeoutNanos) throws InterruptedException;
+
+        /**
+         * 丢弃缓存中最早的一条数据，缓存为空时返回 false
+         */
+        boolean dropOldest();
+
+        /**
+         * @return 缓存使用是否超过 {@link #SAMPLE_THRESHOLD}
+         */
+        boolean isNearlyFull();
+
+        /**
+         * 转存到本地磁盘，无法接收时返回 false。接收后的数据写入磁盘成功或失败时由转存方通过
+         * {@link #addSpilled(long)}、{@link #addDropped(long)} 计入统计
+         */
+        boolean spill(Event event);
+    }
+
+    static final double SAMPLE_THRESHOLD = 0.8;
+
+    private final StrategyEnum strategy;
+    private final long timeoutNanos;
+    private final Map<String, Double> sampleRates;
+    private final double defaultSampleRate;
+    private final String spillDirectory;
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder spilledCount = new LongAdder();
+
+    private BackpressurePolicy(StrategyEnum strategy, long timeoutNanos, Map<String, Double> sampleRates,
+                               double defaultSampleRate, String spillDirectory) {
+        this.strategy = strategy;
+        this.timeoutNanos = timeoutNanos;
+        this.sampleRates = sampleRates;
+        this.defaultSampleRate = defaultSampleRate;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * 等待缓存腾出空间，超时后丢弃新数据
+     *
+     * @param timeout 最长等待时间，单位毫秒，小于 0 表示一直等待
+     * @return 处理策略
+     */
+    public static BackpressurePolicy block(long timeout) {
+        long nanos = timeout < 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(timeout);
+        return new BackpressurePolicy(StrategyEnum.BLOCK, nanos, null, 1, null);
+    }
+
+    /**
+     * @return 直接丢弃新数据的处理策略
+     */
+    public static BackpressurePolicy dropNewest() {
+        return new BackpressurePolicy(StrategyEnum.DROP_NEWEST, 0, null, 1, null);
+    }
+
+    /**
+     * @return 丢弃缓存中最早的数据的处理策略
+     */
+    public static BackpressurePolicy dropOldest() {
+        return new BackpressurePolicy(StrategyEnum.DROP_OLDEST, 0, null, 1, null);
+    }
+
+    /**
+     * 缓存使用超过 80% 后按事件名称抽样保留新数据，缓存写满后丢弃所有新数据。
+     * 用户属性、物品等非 track 类数据按数据类型（例如 profile_set）匹配抽样比例
+     *
+     * @param sampleRates       事件名称或数据类型对应的保留比例，取值 [0, 1]
+     * @param defaultSampleRate 未指定的事件的保留比例
+     * @return 处理策略
+     */
+    public static BackpressurePolicy sample(Map<String, Double> sampleRates, double defaultSampleRate) {
+        Map<String, Double> rates = sampleRates == null ? Collections.<String, Double>emptyMap()
+                : Collections.unmodifiableMap(new HashMap<>(sampleRates));
+        return new BackpressurePolicy(StrategyEnum.SAMPLE, 0, rates, defaultSampleRate, null);
+    }
+
+    /**
+     * 将新数据按批次转存到本地目录，由后台线程定期直接发送，进程重启后继续发送上次遗留的数据。
+     * 只适用于 BatchConsumer 和 AsyncBatchConsumer
+     *
+     * @param spillDirectory 转存目录，不能与预写日志目录相同
+     * @return 处理策略
+     */
+    public static BackpressurePolicy spill(String spillDirectory) {
+        if (spillDirectory == null) {
+            throw new IllegalArgumentException("The spill directory must not be null.");
+        }
+        return new BackpressurePolicy(StrategyEnum.SPILL, 0, null, 1, spillDirectory);
+    }
+
+    /**
+     * @return 处理方式
+     */
+    public StrategyEnum getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return 因缓存已满而丢弃的数据条数，包括抽样丢弃和转存失败的数据
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * @return 已写入本地磁盘的数据条数，尚未凑满批次写入磁盘的数据不计入
+     */
+    public long getSpilledCount() {
+        return spilledCount.sum();
+    }
+
+    String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * 记录写入本地磁盘的转存数据
+     */
+    void addSpilled(long count) {
+        spilledCount.add(count);
+    }
+
+    /**
+     * 记录已经接收、但写入本地磁盘失败的转存数据
+     */
+    void addDropped(long count) {
+        droppedCount.add(count);
+    }
+
+    /**
+     * 按策略放入数据
+     *
+     * @param buffer Consumer 的缓存
+     * @param item   放入缓存的数据
+     * @param event  原始数据，用于抽样和转存
+     * @return 数据已放入缓存或转存时返回 true，被丢弃时返回 false
+     */
+    <T> boolean admit(Buffer<T> buffer, T item, Event event) {
+        switch (strategy) {
+            case BLOCK:
+                if (buffer.offer(item)) {
+                    return true;
+                }
+                try {
+                    if (timeoutNanos > 0 && buffer.offer(item, timeoutNanos)) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            case DROP_OLDEST:
+                while (!buffer.offer(item)) {
+                    if (!buffer.dropOldest()) {
+                        // 缓存为空仍然放不下，只能丢弃新数据
+                        droppedCount.increment();
+                        return false;
+                    }
+                    droppedCount.increment();
+                }
+                return true;
+            case SAMPLE:
+                if ((!buffer.isNearlyFull() || sampledIn(event)) && buffer.offer(item)) {
+                    return true;
+                }
+                break;
+            case SPILL:
+                if (buffer.offer(item)) {
+                    return true;
+                }
+                if (buffer.spill(event)) {
+                    return true;
+                }
+                break;
+            default:
+                if (buffer.offer(item)) {
+                    return true;
+                }
+                break;
+        }
+        droppedCount.increment();
+        return false;
+    }
+
+    private boolean sampledIn(Event event) {
+        String key = event.getEventName() != null ? event.getEventName() : event.getType();
+        Double rate = key == null ? null : sampleRates.get(key);
+        double keep = rate == null ? defaultSampleRate : rate;
+        return keep >= 1 || (keep > 0 && ThreadLocalRandom.current().nextDouble() < keep);
+    }
+}
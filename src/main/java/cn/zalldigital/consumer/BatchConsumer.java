@@ -1,22 +1,236 @@
 package cn.zalldigital.consumer;
 
-import com.google.gson.Gson;
+import cn.zalldigital.Event;
+import cn.zalldigital.exception.HttpConsumerException;
 import com.google.gson.JsonIOException;
 
-import java.util.LinkedList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class BatchConsumer implements Consumer {
 
-    private final List<Map<String, Object>> messageList;
-    private final static int MAX_FLUSH_BULK_SIZE = 50;
+    /**
+     * BatchConsumer 的配置信息
+     */
+    public static class Config {
+        HttpConsumer.Config httpConfig;
+        int bulkSize = DEFAULT_BULK_SIZE;
+        int minBulkSize;
+        int maxBatchBytes;
+        long lingerMs;
+        boolean isThrowException = true;
+        String walDirectory;
+        int walSegmentSize = 64;
+        long walReplayInterval = 10000;
+        LoggerConsumer.DurabilityEnum walDurability = LoggerConsumer.DurabilityEnum.NONE;
+        long walFsyncInterval = 1000;
+        int maxBufferSize = 10000;
+        int bufferShards = Runtime.getRuntime().availableProcessors();
+        BackpressurePolicy backpressurePolicy = BackpressurePolicy.block(-1);
+
+        /**
+         * 创建指定数据接收地址的 BatchConsumer 配置
+         *
+         * @param serverUrl 数据接收地址
+         */
+        public Config(String serverUrl) {
+            this.httpConfig = new HttpConsumer.Config(serverUrl);
+        }
+
+        /**
+         * 使用指定的 HttpConsumer 配置（重试、熔断等）创建 BatchConsumer 配置
+         *
+         * @param httpConfig HttpConsumer 配置
+         */
+        public Config(HttpConsumer.Config httpConfig) {
+            this.httpConfig = httpConfig;
+        }
+
+        /**
+         * 设置请求头
+         *
+         * @param httpHeaders 请求头
+         */
+        public void setHttpHeaders(Map<String, String> httpHeaders) {
+            this.httpConfig.setHttpHeaders(httpHeaders);
+        }
+
+        /**
+         * 设置每个批次的最大数据条数，最大为 1000
+         *
+         * @param bulkSize 批次大小，默认 50
+         */
+        public void setBulkSize(int bulkSize) {
+            this.bulkSize = bulkSize;
+        }
+
+        /**
+         * 设置每个批次序列化后按 UTF-8 编码的最大字节数（压缩前），达到该大小时即使不足 bulkSize 条也单独发送。
+         * 单条数据超过该大小时单独作为一个批次发送
+         *
+         * @param maxBatchBytes 最大字节数，默认 0 表示只按条数分批
+         */
+        public void setMaxBatchBytes(int maxBatchBytes) {
+            this.maxBatchBytes = maxBatchBytes;
+        }
+
+        /**
+         * 设置数据在缓存中的最长停留时间，由后台线程发送停留超时的不足一个批次的数据，
+         * 避免访问量低时数据一直等到调用 flush 才发送
+         *
+         * @param lingerMs 最长停留时间，单位毫秒，默认 0 表示不开启
+         */
+        public void setLingerMs(long lingerMs) {
+            this.lingerMs = lingerMs;
+        }
+
+        /**
+         * 开启自适应批次大小：每次请求结束后按请求期间积压的数据条数在 [minBulkSize, bulkSize] 之间调整批次大小，
+         * 接收端变慢或访问量高时使用更大的批次，访问量低时使用更小的批次
+         *
+         * @param minBulkSize 最小批次大小，默认 0 表示固定使用 bulkSize
+         */
+        public void setMinBulkSize(int minBulkSize) {
+            this.minBulkSize = minBulkSize;
+        }
+
+        /**
+         * 设置发送失败时是否抛出异常
+         *
+         * @param isThrowException 是否抛出异常
+         */
+        public void setThrowException(boolean isThrowException) {
+            this.isThrowException = isThrowException;
+        }
+
+        /**
+         * 设置预写日志目录。设置后每个批次在发送前先写入该目录，发送成功后才会被删除，
+         * 发送失败的批次（包括进程重启前未发送成功的批次）由后台线程重新发送
+         *
+         * @param walDirectory 预写日志目录，默认不开启预写日志
+         */
+        public void setWalDirectory(String walDirectory) {
+            this.walDirectory = walDirectory;
+        }
+
+        /**
+         * 设置预写日志单个段文件的大小，超过该大小后写入新的段文件，旧段文件中的批次全部发送成功后删除
+         *
+         * @param walSegmentSize 段文件大小，单位 MB，默认 64
+         */
+        public void setWalSegmentSize(int walSegmentSize) {
+            this.walSegmentSize = walSegmentSize;
+        }
+
+        /**
+         * 设置重新发送失败批次的时间间隔
+         *
+         * @param walReplayInterval 时间间隔，单位毫秒，默认 10000
+         */
+        public void setWalReplayInterval(long walReplayInterval) {
+            this.walReplayInterval = walReplayInterval;
+        }
+
+        /**
+         * 设置预写日志写入磁盘的策略。默认不主动写入磁盘，只能保证进程崩溃时不丢失批次，主机崩溃或断电时会丢失操作系统缓存中的批次；
+         * {@link LoggerConsumer.DurabilityEnum#INTERVAL} 按 walFsyncInterval 定期写入磁盘，
+         * {@link LoggerConsumer.DurabilityEnum#GROUP} 和 {@link LoggerConsumer.DurabilityEnum#EVERY_FLUSH} 在每个批次发送前写入磁盘
+         *
+         * @param walDurability 写入磁盘的策略，默认 {@link LoggerConsumer.DurabilityEnum#NONE}
+         */
+        public void setWalDurability(LoggerConsumer.DurabilityEnum walDurability) {
+            this.walDurability = walDurability;
+        }
+
+        /**
+         * 设置 {@link LoggerConsumer.DurabilityEnum#INTERVAL} 策略下预写日志写入磁盘的时间间隔
+         *
+         * @param walFsyncInterval 时间间隔，单位毫秒，默认 1000
+         */
+        public void setWalFsyncInterval(long walFsyncInterval) {
+            this.walFsyncInterval = walFsyncInterval;
+        }
+
+        /**
+         * 设置缓存的最大数据条数。一个线程发送批次期间，其他线程的数据先放入缓存，缓存已满时按 {@link BackpressurePolicy} 处理
+         *
+         * @param maxBufferSize 最大数据条数，默认 10000
+         */
+        public void setMaxBufferSize(int maxBufferSize) {
+            this.maxBufferSize = maxBufferSize;
+        }
+
+        /**
+         * 设置缓存的分片数。调用线程按线程 ID 放入其中一个分片，多个线程同时调用 send 时只竞争各自分片的锁。
+         * 每个分片最多缓存 max(maxBufferSize / bufferShards, bulkSize) 条数据
+         *
+         * @param bufferShards 分片数，默认为 CPU 核数
+         */
+        public void setBufferShards(int bufferShards) {
+            this.bufferShards = bufferShards;
+        }
+
+        /**
+         * 设置缓存已满时的处理策略
+         *
+         * @param backpressurePolicy 处理策略，默认一直等待缓存腾出空间
+         */
+        public void setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+            this.backpressurePolicy = backpressurePolicy;
+        }
+    }
+
+    private final StripedEventBuffer events;
+    private final static int DEFAULT_BULK_SIZE = 50;
+    private final static int MAX_FLUSH_BULK_SIZE = 1000;
+    private final static long BLOCK_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
     private final HttpConsumer httpConsumer;
+    private final ConsumerMetrics metrics = new ConsumerMetrics("BatchConsumer");
     private final boolean isThrowException;
     private final int bulkSize;
+    private final int minBulkSize;
+    private final int maxBatchBytes;
+
+    /**
+     * 当前批次大小，开启自适应批次大小时在 [minBulkSize, bulkSize] 之间调整，否则始终等于 bulkSize
+     */
+    private volatile int currentBulkSize;
+
+    /**
+     * 按 maxBatchBytes 分批时放不下而留到下一个批次的数据，只在持有 flushLock 时访问。该数据仍计入缓存的数据条数
+     */
+    private String carriedJson;
+
+    /**
+     * carriedJson 的 linger 计时起点，没有留下的数据时为 -1
+     */
+    private volatile long carriedTime = -1;
+
+    private final BackpressurePolicy backpressurePolicy;
+    private final BackpressurePolicy.Buffer<Event> buffer = new EventBuffer();
+    private final SpillStore spillStore;
+
+    /**
+     * 同一时间只有一个线程发送批次，其他线程的数据留在缓存中
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final WriteAheadLog wal;
+    private final Thread walReplayer;
+    private final long walReplayInterval;
+    private final Object walReplayLock = new Object();
+    private final Thread lingerThread;
+    private final long lingerMs;
+    private final Object lingerLock = new Object();
+    private volatile boolean running = true;
 
     public BatchConsumer (final String serverUrl) {
-        this(serverUrl, MAX_FLUSH_BULK_SIZE);
+        this(serverUrl, DEFAULT_BULK_SIZE);
     }
 
     public BatchConsumer (final String serverUrl, final int bulkSize) {
@@ -25,56 +239,507 @@ public class BatchConsumer implements Consumer {
 
     public BatchConsumer (final String serverUrl, final Map<String, String> httpHeaders, final int bulkSize,
                           final boolean isThrowException) {
+        this(newConfig(serverUrl, httpHeaders, bulkSize, isThrowException));
+    }
+
+    public BatchConsumer (final Config config) {
+        this.httpConsumer = new HttpConsumer(config.httpConfig, metrics);
+        this.isThrowException = config.isThrowException;
+        this.bulkSize = Math.min(config.bulkSize, MAX_FLUSH_BULK_SIZE);
+        this.minBulkSize = config.minBulkSize > 0 ? Math.min(config.minBulkSize, this.bulkSize) : 0;
+        this.currentBulkSize = this.minBulkSize > 0 ? this.minBulkSize : this.bulkSize;
+        this.maxBatchBytes = Math.max(config.maxBatchBytes, 0);
+        this.lingerMs = config.lingerMs;
+        int shards = Math.max(1, config.bufferShards);
+        this.events = new StripedEventBuffer(shards, Math.max((config.maxBufferSize + shards - 1) / shards, this.bulkSize));
+        this.backpressurePolicy = config.backpressurePolicy;
+        this.walReplayInterval = config.walReplayInterval;
+        this.spillStore = backpressurePolicy.getStrategy() == BackpressurePolicy.StrategyEnum.SPILL
+                ? new SpillStore(backpressurePolicy, config.httpConfig, bulkSize, metrics) : null;
+
+        if (config.walDirectory != null) {
+            try {
+                this.wal = new WriteAheadLog(new File(config.walDirectory), config.walSegmentSize * 1024L * 1024L,
+                        config.walDurability, config.walFsyncInterval, metrics.getFsyncLatency());
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to open write-ahead log in " + config.walDirectory, e);
+            }
+            this.walReplayer = new Thread(new WalReplayer(), "ZallDataAnalytics-BatchConsumer-WalReplayer");
+            this.walReplayer.setDaemon(true);
+            this.walReplayer.start();
+        } else {
+            this.wal = null;
+            this.walReplayer = null;
+        }
 
-        this.messageList = new LinkedList<>();
-        this.httpConsumer = new HttpConsumer(serverUrl, httpHeaders);
-        this.isThrowException = isThrowException;
-        this.bulkSize = Math.min(bulkSize, MAX_FLUSH_BULK_SIZE);
+        if (lingerMs > 0) {
+            this.lingerThread = new Thread(new LingerTask(), "ZallDataAnalytics-BatchConsumer-Linger");
+            this.lingerThread.setDaemon(true);
+            this.lingerThread.start();
+        } else {
+            this.lingerThread = null;
+        }
+    }
+
+    private static Config newConfig(String serverUrl, Map<String, String> httpHeaders, int bulkSize,
+                                    boolean isThrowException) {
+        Config config = new Config(serverUrl);
+        config.setHttpHeaders(httpHeaders);
+        config.setBulkSize(bulkSize);
+        config.setThrowException(isThrowException);
+        return config;
     }
 
     @Override
     public void send(Map<String, Object> message) {
-        synchronized (messageList) {
-            messageList.add(message);
-            if (messageList.size() >= bulkSize) {
-                flush();
-            }
+        send(Event.fromMap(message));
+    }
+
+    @Override
+    public void send(Event message) {
+        metrics.addAccepted(1);
+        if (!backpressurePolicy.admit(buffer, message, message)) {
+            metrics.addDropped(1);
+            return;
+        }
+        // 当前分片的数据较多时才统计所有分片的数据条数
+        int bulk = currentBulkSize;
+        if (events.shard().count() >= Math.max(1, bulk / events.shardCount()) && events.size() >= bulk) {
+            tryFlush();
         }
     }
 
     @Override
     public void flush() {
-        synchronized (messageList) {
-            while (!messageList.isEmpty()) {
-                List<Map<String, Object>> sendList = messageList.subList(0, Math.min(bulkSize, messageList.size()));
+        long start = System.nanoTime();
+        flushLock.lock();
+        try {
+            sendBuffered(true);
+            if (spillStore != null) {
+                spillStore.flush();
+            }
+        } finally {
+            flushLock.unlock();
+            metrics.getFlushLatency().record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 已有线程在发送时直接返回，不阻塞调用方
+     *
+     * @return 当前线程是否发送了缓存中的数据
+     */
+    private boolean tryFlush() {
+        if (!flushLock.tryLock()) {
+            return false;
+        }
+        try {
+            sendBuffered(false);
+        } finally {
+            flushLock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * 发送调用时缓存中的数据，调用方需持有 flushLock。发送期间不持有缓存的锁，其他线程可以继续放入数据
+     *
+     * @param all 是否发送不足一个批次的数据
+     */
+    private void sendBuffered(boolean all) {
+        int bulk = currentBulkSize;
+        int size = events.size();
+        int remaining = all ? size : size / bulk * bulk;
+        if (all && carriedJson != null) {
+            remaining++;
+        }
+        while (remaining > 0) {
+            List<Event> sendList = null;
+            String data = null;
+            int count;
+            if (maxBatchBytes > 0) {
+                StringBuilder batch = new StringBuilder(Math.min(maxBatchBytes, 64 * 1024));
+                count = fillBatch(batch, bulk);
+                if (count == 0) {
+                    return;
+                }
+                data = batch.toString();
+            } else {
+                sendList = new ArrayList<>(bulk);
+                count = events.drainTo(sendList, bulk);
+                if (count == 0) {
+                    return;
+                }
+                metrics.addBuffered(-count, 0);
+            }
+            remaining -= count;
 
-                String sendingData;
+            try {
+                if (wal == null) {
+                    if (data == null) {
+                        httpConsumer.consume(sendList);
+                    } else {
+                        httpConsumer.consume(data);
+                    }
+                } else {
+                    consumeWithWal(data == null ? EventEncoder.toJson(sendList) : data);
+                }
+                metrics.addSent(count);
+            } catch (JsonIOException e) {
+                metrics.addFailed(count);
+                if (isThrowException) {
+                    throw new RuntimeException("Failed to serialize data.", e);
+                }
+            } catch (Exception e) {
+                metrics.addFailed(count);
+                if (isThrowException) {
+                    throw new RuntimeException("Failed to dump message with BatchConsumer.", e);
+                }
+                return;
+            }
+            bulk = adaptBulkSize();
+        }
+    }
+
+    /**
+     * 按 maxBatchBytes 逐条序列化并拼接批次，放不下的一条数据留到下一个批次，调用方需持有 flushLock
+     *
+     * @param batch 拼接批次的缓冲区
+     * @param bulk  批次的最大数据条数
+     * @return 批次中的数据条数
+     */
+    private int fillBatch(StringBuilder batch, int bulk) {
+        batch.append('[');
+        int count = 0;
+        // 已拼接内容按 UTF-8 编码的字节数
+        long batchBytes = 1;
+        // 放不下的数据不早于此时放入缓存，按此时间计算 linger
+        long oldest = lingerMs > 0 ? events.oldestBufferedTime() : -1;
+        while (count < bulk) {
+            String json = carriedJson;
+            if (json != null) {
+                if (carriedTime >= 0 && (oldest < 0 || carriedTime < oldest)) {
+                    oldest = carriedTime;
+                }
+                carriedJson = null;
+                carriedTime = -1;
+                metrics.addBuffered(-1, 0);
+            } else {
+                Event event = events.poll();
+                if (event == null) {
+                    break;
+                }
+                metrics.addBuffered(-1, 0);
+                long start = System.nanoTime();
                 try {
-                    sendingData = new Gson().toJson(sendList);
+                    json = EventEncoder.toJson(event);
                 } catch (JsonIOException e) {
-                    sendList.clear();
+                    metrics.addFailed(1);
                     if (isThrowException) {
                         throw new RuntimeException("Failed to serialize data.", e);
                     }
                     continue;
+                } finally {
+                    metrics.getSerializeLatency().record(System.nanoTime() - start);
+                }
+            }
+            int jsonBytes = utf8Length(json);
+            // 逗号和结尾的 ']' 各占一个字节
+            if (count > 0 && batchBytes + jsonBytes + 2 > maxBatchBytes) {
+                carriedJson = json;
+                carriedTime = oldest >= 0 ? oldest : System.currentTimeMillis();
+                metrics.addBuffered(1, 0);
+                break;
+            }
+            if (count > 0) {
+                batch.append(',');
+                batchBytes++;
+            }
+            batch.append(json);
+            batchBytes += jsonBytes;
+            count++;
+        }
+        batch.append(']');
+        return count;
+    }
+
+    /**
+     * @return 字符串按 UTF-8 编码后的字节数，不实际编码
+     */
+    private static int utf8Length(String s) {
+        int length = s.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes++;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                // 代理对共 4 个字节，两个 char 已各计 1 个
+                bytes += 2;
+                i++;
+            } else {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 按上一个请求期间积压的数据条数调整批次大小：积压越多说明请求越慢或访问量越高，下一个批次越大
+     *
+     * @return 调整后的批次大小
+     */
+    private int adaptBulkSize() {
+        if (minBulkSize == 0) {
+            return bulkSize;
+        }
+        int backlog = events.size();
+        int next = Math.max(minBulkSize, Math.min(bulkSize, (currentBulkSize + backlog) / 2));
+        currentBulkSize = next;
+        return next;
+    }
+
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            running = false;
+            if (lingerThread != null) {
+                synchronized (lingerLock) {
+                    lingerLock.notifyAll();
+                }
+                try {
+                    lingerThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (wal != null) {
+                synchronized (walReplayLock) {
+                    walReplayLock.notifyAll();
                 }
+                try {
+                    walReplayer.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                try {
+                    wal.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (spillStore != null) {
+                spillStore.close();
+            }
+            httpConsumer.close();
+            metrics.unregisterMBean();
+        }
+    }
+
+    @Override
+    public ConsumerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return 熔断器状态
+     */
+    public HttpConsumer.CircuitStateEnum getCircuitState() {
+        return httpConsumer.getCircuitState();
+    }
+
+    /**
+     * 先写入预写日志再发送，发送成功后确认；发送失败的批次留在预写日志中等待重新发送
+     */
+    private void consumeWithWal(String data) throws IOException, HttpConsumerException {
+        long id;
+        try {
+            id = wal.append(data.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // 预写日志不可用时仍然尝试直接发送
+            e.printStackTrace();
+            httpConsumer.consume(data);
+            return;
+        }
+
+        try {
+            httpConsumer.consume(data);
+        } catch (IOException | HttpConsumerException | RuntimeException e) {
+            wal.release(id);
+            throw e;
+        }
+        try {
+            wal.ack(id);
+        } catch (IOException e) {
+            // 确认失败时该批次可能被重复发送
+            e.printStackTrace();
+        }
+    }
 
+    /**
+     * 有界的发送缓存，由 {@link BackpressurePolicy} 决定缓存已满时的处理方式。容量按调用线程所在的分片计算
+     */
+    private class EventBuffer implements BackpressurePolicy.Buffer<Event> {
+
+        @Override
+        public boolean offer(Event item) {
+            StripedEventBuffer.Shard shard = events.shard();
+            synchronized (shard) {
+                if (shard.isFull() || shard.blockedSenders > 0) {
+                    return false;
+                }
+                shard.add(item);
+            }
+            metrics.addBuffered(1, 0);
+            return true;
+        }
+
+        /**
+         * 等待发送线程腾出分片的空间；没有线程在发送时（例如之前的发送失败）由当前线程发送，发送后直接放入数据，
+         * 避免腾出的空间被其他线程占用而使当前线程一直承担发送。分片最多因此超出调用线程数条数据。
+         * 等待的线程之间不保证先后顺序
+         */
+        @Override
+        public boolean offer(Event item, long timeoutNanos) throws InterruptedException {
+            long start = System.nanoTime();
+            StripedEventBuffer.Shard shard = events.shard();
+            synchronized (shard) {
+                shard.blockedSenders++;
+            }
+            try {
+                while (true) {
+                    synchronized (shard) {
+                        if (!shard.isFull()) {
+                            shard.add(item);
+                            metrics.addBuffered(1, 0);
+                            return true;
+                        }
+                        long wait = timeoutNanos - (System.nanoTime() - start);
+                        if (wait <= 0) {
+                            return false;
+                        }
+                        if (flushLock.isLocked()) {
+                            TimeUnit.NANOSECONDS.timedWait(shard, Math.min(wait, BLOCK_WAIT_NANOS));
+                            continue;
+                        }
+                    }
+                    if (tryFlush()) {
+                        synchronized (shard) {
+                            shard.add(item);
+                        }
+                        metrics.addBuffered(1, 0);
+                        return true;
+                    }
+                }
+            } finally {
+                synchronized (shard) {
+                    shard.blockedSenders--;
+                }
+            }
+        }
+
+        @Override
+        public boolean dropOldest() {
+            StripedEventBuffer.Shard shard = events.shard();
+            synchronized (shard) {
+                if (shard.poll() == null) {
+                    return false;
+                }
+            }
+            metrics.addBuffered(-1, 0);
+            metrics.addDropped(1);
+            return true;
+        }
+
+        @Override
+        public boolean isNearlyFull() {
+            return events.shard().isNearlyFull();
+        }
+
+        @Override
+        public boolean spill(Event event) {
+            return spillStore != null && spillStore.spill(event);
+        }
+    }
+
+    /**
+     * 定期重新发送预写日志中未确认的批次，启动时立即执行一次以发送上次进程遗留的批次
+     */
+    private class WalReplayer implements Runnable {
+        @Override
+        public void run() {
+            WriteAheadLog.Replayer replayer = new WriteAheadLog.Replayer() {
+                @Override
+                public void replay(String data) throws Exception {
+                    httpConsumer.consume(data);
+                }
+            };
+            while (running) {
                 try {
-                    sendList.clear();
-                    httpConsumer.consume(sendingData);
+                    wal.replay(replayer);
                 } catch (Exception e) {
-                    if (isThrowException) {
-                        throw new RuntimeException("Failed to dump message with BatchConsumer.", e);
+                    e.printStackTrace();
+                }
+                synchronized (walReplayLock) {
+                    if (!running) {
+                        break;
+                    }
+                    try {
+                        walReplayLock.wait(walReplayInterval);
+                    } catch (InterruptedException e) {
+                        return;
                     }
-                    return;
                 }
             }
         }
     }
 
-    @Override
-    public void close() {
-        flush();
-        httpConsumer.close();
+    /**
+     * 发送在缓存中停留超过 lingerMs 的数据，包括按 maxBatchBytes 分批时留到下一个批次的数据。
+     * 发送失败时剩余数据重新计时，避免接收端不可用时反复重试
+     */
+    private class LingerTask implements Runnable {
+        @Override
+        public void run() {
+            while (running) {
+                long oldest = events.oldestBufferedTime();
+                long carried = carriedTime;
+                if (carried >= 0 && (oldest < 0 || carried < oldest)) {
+                    oldest = carried;
+                }
+                long delay = oldest < 0 ? lingerMs : oldest + lingerMs - System.currentTimeMillis();
+                if (delay > 0) {
+                    synchronized (lingerLock) {
+                        if (!running) {
+                            break;
+                        }
+                        try {
+                            lingerLock.wait(delay);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    continue;
+                }
+                long start = System.currentTimeMillis();
+                flushLock.lock();
+                try {
+                    sendBuffered(true);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    if (carriedTime >= 0 && carriedTime < start) {
+                        carriedTime = start;
+                    }
+                    flushLock.unlock();
+                }
+                events.resetBufferedTime(start);
+            }
+        }
     }
 }
@@ -0,0 +1,65 @@
+package cn.zalldigital.consumer;
+
+/**
+ * HttpConsumer 使用的熔断器
+ * <p>
+ * 连续失败次数达到阈值后打开，打开期间请求直接失败；经过指定时间后进入半开状态，只放行一个探测请求，
+ * 探测成功则关闭，失败则重新打开。
+ */
+final class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openDuration;
+    private HttpConsumer.CircuitStateEnum state = HttpConsumer.CircuitStateEnum.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    CircuitBreaker(int failureThreshold, long openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * @return 是否允许发出请求；半开状态下只有第一个调用方会得到 true
+     */
+    synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt >= openDuration) {
+                    state = HttpConsumer.CircuitStateEnum.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    synchronized void onSuccess() {
+        state = HttpConsumer.CircuitStateEnum.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    synchronized void onFailure() {
+        if (state == HttpConsumer.CircuitStateEnum.HALF_OPEN || ++consecutiveFailures >= failureThreshold) {
+            state = HttpConsumer.CircuitStateEnum.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    synchronized HttpConsumer.CircuitStateEnum getState() {
+        return state;
+    }
+
+    /**
+     * @return 距离允许下一次探测请求的时间，单位毫秒
+     */
+    synchronized long getRetryDelay() {
+        if (state != HttpConsumer.CircuitStateEnum.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openedAt + openDuration - System.currentTimeMillis());
+    }
+}
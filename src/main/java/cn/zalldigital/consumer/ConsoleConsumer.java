@@ -1,6 +1,6 @@
 package cn.zalldigital.consumer;
 
-import com.google.gson.Gson;
+import cn.zalldigital.Event;
 
 import java.io.IOException;
 import java.io.Writer;
@@ -9,23 +9,34 @@ import java.util.Map;
 public class ConsoleConsumer implements Consumer {
 
     private final Writer writer;
+    private final ConsumerMetrics metrics = new ConsumerMetrics("ConsoleConsumer");
 
     public ConsoleConsumer(final Writer writer) {
         this.writer = writer;
     }
 
     @Override public void send(Map<String, Object> message) {
+        send(Event.fromMap(message));
+    }
+
+    @Override public void send(Event message) {
+        metrics.addAccepted(1);
+        long start = System.nanoTime();
         try {
             synchronized (writer) {
-                writer.write(new Gson().toJson(message));
+                EventEncoder.write(message, writer);
                 writer.write("\n");
             }
         } catch (IOException e) {
+            metrics.addFailed(1);
             throw new RuntimeException("Failed to dump message with ConsoleConsumer.", e);
         }
+        metrics.getFileWriteLatency().record(System.nanoTime() - start);
+        metrics.addSent(1);
     }
 
     @Override public void flush() {
+        long start = System.nanoTime();
         try {
             synchronized (writer) {
                 writer.flush();
@@ -33,6 +44,7 @@ public class ConsoleConsumer implements Consumer {
         } catch (IOException e) {
             throw new RuntimeException("Failed to flush with ConsoleConsumer.", e);
         }
+        metrics.getFlushLatency().record(System.nanoTime() - start);
     }
 
     @Override public void close() {
@@ -44,5 +56,10 @@ public class ConsoleConsumer implements Consumer {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        metrics.unregisterMBean();
+    }
+
+    @Override public ConsumerMetrics getMetrics() {
+        return metrics;
     }
 }
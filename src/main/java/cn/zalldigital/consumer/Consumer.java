@@ -1,12 +1,32 @@
 package cn.zalldigital.consumer;
 
+import cn.zalldigital.Event;
+
 import java.util.Map;
 
 public interface Consumer {
 
     void send(Map<String, Object> message);
 
+    /**
+     * 发送一条数据。默认转换为 Map 后调用 {@link #send(Map)}，SDK 内置的 Consumer 会直接处理 Event 而不做转换
+     *
+     * @param event 待发送的数据
+     */
+    default void send(Event event) {
+        send(event.toMap());
+    }
+
     void flush();
 
     void close();
+
+    /**
+     * 获取运行指标，SDK 内置的 Consumer 都会记录指标
+     *
+     * @return 运行指标，不记录指标的 Consumer 返回 null
+     */
+    default ConsumerMetrics getMetrics() {
+        return null;
+    }
 }
@@ -0,0 +1,280 @@
+package cn.zalldigital.consumer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Consumer 的运行指标
+ * <p>
+ * SDK 内置的 Consumer 都会将接收、丢弃、发送的数据条数，缓存的数据量，以及序列化、压缩、HTTP 请求、写文件等环节的耗时记录在这里，
+ * 通过 {@link Consumer#getMetrics()} 获取。记录过程无锁且不创建对象，自定义的 Consumer 也可以使用。
+ * <p>
+ * 指标可以通过 {@link #registerMBean()} 发布为 JMX MBean，也可以通过 {@link #report(Reporter)} 定期导出到其他监控系统。
+ */
+public final class ConsumerMetrics implements ConsumerMetricsMXBean {
+
+    /**
+     * 导出指标的回调，每个指标调用一次
+     */
+    public interface Reporter {
+
+        /**
+         * @param name  指标名称
+         * @param value 累计值
+         */
+        void counter(String name, long value);
+
+        /**
+         * @param name  指标名称
+         * @param value 当前值
+         */
+        void gauge(String name, long value);
+
+        /**
+         * @param name     指标名称
+         * @param recorder 耗时分布
+         */
+        void latency(String name, LatencyRecorder recorder);
+    }
+
+    private static final String DOMAIN = "cn.zalldigital";
+    private static final AtomicInteger MBEAN_ID = new AtomicInteger();
+
+    private final String consumerName;
+    private final LongAdder acceptedEvents = new LongAdder();
+    private final LongAdder droppedEvents = new LongAdder();
+    private final LongAdder sentEvents = new LongAdder();
+    private final LongAdder failedEvents = new LongAdder();
+    private final LongAdder bufferedEvents = new LongAdder();
+    private final LongAdder bufferedBytes = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    private final LatencyRecorder serializeLatency = new LatencyRecorder();
+    private final LatencyRecorder compressLatency = new LatencyRecorder();
+    private final LatencyRecorder httpLatency = new LatencyRecorder();
+    private final LatencyRecorder fileWriteLatency = new LatencyRecorder();
+    private final LatencyRecorder fsyncLatency = new LatencyRecorder();
+    private final LatencyRecorder flushLatency = new LatencyRecorder();
+    private ObjectName objectName;
+
+    /**
+     * @param consumerName Consumer 名称，用于 MBean 名称
+     */
+    public ConsumerMetrics(String consumerName) {
+        this.consumerName = consumerName;
+    }
+
+    /**
+     * @param events 接收的数据条数
+     */
+    public void addAccepted(long events) {
+        acceptedEvents.add(events);
+    }
+
+    /**
+     * @param events 丢弃的数据条数
+     */
+    public void addDropped(long events) {
+        droppedEvents.add(events);
+    }
+
+    /**
+     * @param events 发送或写入成功的数据条数
+     */
+    public void addSent(long events) {
+        sentEvents.add(events);
+    }
+
+    /**
+     * @param events 发送或写入失败的数据条数
+     */
+    public void addFailed(long events) {
+        failedEvents.add(events);
+    }
+
+    /**
+     * 调整缓存的数据量，数据放入缓存时为正数，离开缓存时为负数
+     *
+     * @param events 数据条数
+     * @param bytes  数据字节数
+     */
+    public void addBuffered(long events, long bytes) {
+        if (events != 0) {
+            bufferedEvents.add(events);
+        }
+        if (bytes != 0) {
+            bufferedBytes.add(bytes);
+        }
+    }
+
+    /**
+     * 记录一次 HTTP 请求
+     *
+     * @param bytes   请求体字节数
+     * @param nanos   请求耗时，单位纳秒
+     * @param success 是否成功
+     */
+    public void addRequest(long bytes, long nanos, boolean success) {
+        requests.increment();
+        httpLatency.record(nanos);
+        if (success) {
+            sentBytes.add(bytes);
+        } else {
+            failedRequests.increment();
+        }
+    }
+
+    @Override
+    public String getConsumerName() {
+        return consumerName;
+    }
+
+    @Override
+    public long getAcceptedEvents() {
+        return acceptedEvents.sum();
+    }
+
+    @Override
+    public long getDroppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    @Override
+    public long getSentEvents() {
+        return sentEvents.sum();
+    }
+
+    @Override
+    public long getFailedEvents() {
+        return failedEvents.sum();
+    }
+
+    @Override
+    public long getBufferedEvents() {
+        return bufferedEvents.sum();
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        return bufferedBytes.sum();
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getFailedRequests() {
+        return failedRequests.sum();
+    }
+
+    @Override
+    public long getSentBytes() {
+        return sentBytes.sum();
+    }
+
+    @Override
+    public LatencyRecorder getSerializeLatency() {
+        return serializeLatency;
+    }
+
+    @Override
+    public LatencyRecorder getCompressLatency() {
+        return compressLatency;
+    }
+
+    @Override
+    public LatencyRecorder getHttpLatency() {
+        return httpLatency;
+    }
+
+    @Override
+    public LatencyRecorder getFileWriteLatency() {
+        return fileWriteLatency;
+    }
+
+    @Override
+    public LatencyRecorder getFsyncLatency() {
+        return fsyncLatency;
+    }
+
+    @Override
+    public LatencyRecorder getFlushLatency() {
+        return flushLatency;
+    }
+
+    /**
+     * 依次导出所有指标
+     *
+     * @param reporter 导出回调
+     */
+    public void report(Reporter reporter) {
+        reporter.counter("events.accepted", getAcceptedEvents());
+        reporter.counter("events.dropped", getDroppedEvents());
+        reporter.counter("events.sent", getSentEvents());
+        reporter.counter("events.failed", getFailedEvents());
+        reporter.counter("requests", getRequests());
+        reporter.counter("requests.failed", getFailedRequests());
+        reporter.counter("bytes.sent", getSentBytes());
+        reporter.gauge("buffered.events", getBufferedEvents());
+        reporter.gauge("buffered.bytes", getBufferedBytes());
+        reporter.latency("latency.serialize", serializeLatency);
+        reporter.latency("latency.compress", compressLatency);
+        reporter.latency("latency.http", httpLatency);
+        reporter.latency("latency.file_write", fileWriteLatency);
+        reporter.latency("latency.fsync", fsyncLatency);
+        reporter.latency("latency.flush", flushLatency);
+    }
+
+    /**
+     * 以 cn.zalldigital:type=ConsumerMetrics,consumer=&lt;Consumer 名称&gt;,id=&lt;序号&gt; 为名称注册到 JVM 的 MBeanServer
+     *
+     * @return MBean 名称
+     */
+    public ObjectName registerMBean() {
+        return registerMBean(String.format("%s:type=ConsumerMetrics,consumer=%s,id=%d",
+                DOMAIN, consumerName, MBEAN_ID.incrementAndGet()));
+    }
+
+    /**
+     * 以指定名称注册到 JVM 的 MBeanServer，之前注册的 MBean 会被注销。Consumer 关闭时自动注销
+     *
+     * @param name MBean 名称
+     * @return MBean 名称
+     */
+    public synchronized ObjectName registerMBean(String name) {
+        try {
+            ObjectName target = new ObjectName(name);
+            unregisterMBean();
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, target);
+            objectName = target;
+            return target;
+        } catch (JMException e) {
+            throw new RuntimeException("Failed to register consumer metrics MBean " + name, e);
+        }
+    }
+
+    /**
+     * 注销已注册的 MBean，未注册时不做任何操作
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        objectName = null;
+    }
+}
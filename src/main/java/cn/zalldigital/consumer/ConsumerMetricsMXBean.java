@@ -0,0 +1,87 @@
+package cn.zalldigital.consumer;
+
+/**
+ * {@link ConsumerMetrics} 的 JMX 接口，耗时分布以 CompositeData 形式展示
+ */
+public interface ConsumerMetricsMXBean {
+
+    /**
+     * @return Consumer 名称
+     */
+    String getConsumerName();
+
+    /**
+     * @return 接收的数据条数
+     */
+    long getAcceptedEvents();
+
+    /**
+     * @return 未尝试发送或写入即被丢弃的数据条数
+     */
+    long getDroppedEvents();
+
+    /**
+     * @return 发送或写入成功的数据条数
+     */
+    long getSentEvents();
+
+    /**
+     * @return 发送或写入失败的数据条数
+     */
+    long getFailedEvents();
+
+    /**
+     * @return 当前缓存中尚未发送或写入的数据条数
+     */
+    long getBufferedEvents();
+
+    /**
+     * @return 当前缓存中已序列化但尚未发送或写入的数据字节数
+     */
+    long getBufferedBytes();
+
+    /**
+     * @return 发出的 HTTP 请求数，包括重试
+     */
+    long getRequests();
+
+    /**
+     * @return 失败的 HTTP 请求数，包括重试
+     */
+    long getFailedRequests();
+
+    /**
+     * @return 发送成功的请求体字节数
+     */
+    long getSentBytes();
+
+    /**
+     * @return 序列化耗时
+     */
+    LatencyRecorder getSerializeLatency();
+
+    /**
+     * @return 压缩耗时
+     */
+    LatencyRecorder getCompressLatency();
+
+    /**
+     * @return 单次 HTTP 请求耗时
+     */
+    LatencyRecorder getHttpLatency();
+
+    /**
+     * @return 写入文件耗时
+     */
+    LatencyRecorder getFileWriteLatency();
+
+    /**
+     * @return 写入磁盘（fsync）耗时
+     */
+    LatencyRecorder getFsyncLatency();
+
+    /**
+     * @return 调用 flush 的耗时
+     */
+    LatencyRecorder getFlushLatency();
+}
@@ -1,7 +1,7 @@
 package cn.zalldigital.consumer;
 
+import cn.zalldigital.Event;
 import cn.zalldigital.exception.HttpConsumerException;
-import com.google.gson.Gson;
 import com.google.gson.JsonIOException;
 import org.apache.http.client.utils.URIBuilder;
 
@@ -17,6 +17,7 @@ import java.util.Map;
 public class DebugConsumer implements Consumer {
 
     final HttpConsumer httpConsumer;
+    private final ConsumerMetrics metrics = new ConsumerMetrics("DebugConsumer");
 
     public DebugConsumer(final String serverUrl, final boolean writeData) {
         String debugUrl = null;
@@ -36,17 +37,24 @@ public class DebugConsumer implements Consumer {
             headers.put("Dry-Run", "true");
         }
 
-        this.httpConsumer = new HttpConsumer(debugUrl, headers);
+        HttpConsumer.Config httpConfig = new HttpConsumer.Config(debugUrl);
+        httpConfig.setHttpHeaders(headers);
+        this.httpConsumer = new HttpConsumer(httpConfig, metrics);
 //        this.httpUtils = new HttpUtils(serverUrl, headers);
     }
 
     @Override public void send(Map<String, Object> message) {
-        List<Map<String, Object>> messageList = new ArrayList<Map<String, Object>>();
+        send(Event.fromMap(message));
+    }
+
+    @Override public void send(Event message) {
+        metrics.addAccepted(1);
+        List<Event> messageList = new ArrayList<Event>();
         messageList.add(message);
 
         String sendingData;
         try {
-            sendingData = new Gson().toJson(messageList);
+            sendingData = EventEncoder.toJson(messageList);
         } catch (JsonIOException e) {
             throw new RuntimeException("Failed to serialize data.", e);
         }
@@ -55,10 +63,13 @@ public class DebugConsumer implements Consumer {
 
         try {
             httpConsumer.consume(sendingData);
+            metrics.addSent(1);
             System.out.printf("valid message: %s%n", sendingData);
         } catch (IOException e) {
+            metrics.addFailed(1);
             throw new RuntimeException("Failed to send message with DebugConsumer.", e);
         } catch (HttpConsumerException e) {
+            metrics.addFailed(1);
             System.out.printf("invalid message: %s%n", e.getSendingData());
             System.out.printf("http status code: %d%n", e.getHttpStatusCode());
             System.out.printf("http content: %s%n", e.getHttpContent());
@@ -72,6 +83,11 @@ public class DebugConsumer implements Consumer {
 
     @Override public void close() {
         httpConsumer.close();
+        metrics.unregisterMBean();
+    }
+
+    @Override public ConsumerMetrics getMetrics() {
+        return metrics;
     }
 
     private static String strJoin(String[] arr, String sep) {
@@ -0,0 +1,309 @@
+package cn.zalldigital.consumer;
+
+import cn.zalldigital.Event;
+import cn.zalldigital.ZallDataAnalytics;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.DateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 线程安全的数据 JSON 编码器
+ * <p>
+ * 直接把数据写入 {@link Writer}。{@link Event} 的固定字段按固定顺序直接输出；对 SDK 支持的属性类型（{@link Number}, {@link String}, {@link Date}, {@link Boolean},
+ * {@code List}）以及 {@link Map} 不使用反射；其他类型交给共享的 {@link Gson} 实例处理。
+ * Map 形式的数据输出结果与 {@code new Gson().toJson(...)} 逐字节一致。
+ */
+public final class EventEncoder {
+
+    private static final Gson GSON = new Gson();
+
+    private static final String[] REPLACEMENT_CHARS = new String[128];
+
+    static {
+        for (int i = 0; i <= 0x1f; i++) {
+            REPLACEMENT_CHARS[i] = String.format("\\u%04x", i);
+        }
+        REPLACEMENT_CHARS['"'] = "\\\"";
+        REPLACEMENT_CHARS['\\'] = "\\\\";
+        REPLACEMENT_CHARS['\t'] = "\\t";
+        REPLACEMENT_CHARS['\b'] = "\\b";
+        REPLACEMENT_CHARS['\n'] = "\\n";
+        REPLACEMENT_CHARS['\r'] = "\\r";
+        REPLACEMENT_CHARS['\f'] = "\\f";
+        // 与 Gson 默认的 htmlSafe 保持一致
+        REPLACEMENT_CHARS['<'] = "\\u003c";
+        REPLACEMENT_CHARS['>'] = "\\u003e";
+        REPLACEMENT_CHARS['&'] = "\\u0026";
+        REPLACEMENT_CHARS['='] = "\\u003d";
+        REPLACEMENT_CHARS['\''] = "\\u0027";
+    }
+
+    /**
+     * 与 Gson 默认的 Date 格式相同
+     */
+    private static final ThreadLocal<DateFormat> DATE_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return DateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US);
+        }
+    };
+
+    private static final String LIB_PREFIX = "\"lib\":{\"$lib\":\"" + Event.LIB + "\",\"$lib_version\":\""
+            + ZallDataAnalytics.SDK_VERSION + "\",\"$lib_method\":\"" + Event.LIB_METHOD + "\"";
+
+    private static final ThreadLocal<StringBuilderWriter> STRING_WRITER = new ThreadLocal<StringBuilderWriter>() {
+        @Override
+        protected StringBuilderWriter initialValue() {
+            return new StringBuilderWriter();
+        }
+    };
+
+    private EventEncoder() {
+    }
+
+    /**
+     * 将数据（单条数据或一批数据）编码为 JSON 字符串
+     *
+     * @param value 待编码的数据
+     * @return JSON 字符串
+     */
+    public static String toJson(Object value) {
+        StringBuilderWriter writer = STRING_WRITER.get();
+        writer.builder.setLength(0);
+        try {
+            write(value, writer);
+        } catch (IOException e) {
+            // StringBuilderWriter 不会抛出 IOException
+            throw new IllegalStateException(e);
+        }
+        String json = writer.builder.toString();
+        if (writer.builder.capacity() > 64 * 1024) {
+            writer.builder.setLength(0);
+            writer.builder.trimToSize();
+        }
+        return json;
+    }
+
+    /**
+     * 将数据（单条数据或一批数据）以 JSON 形式写入 writer
+     *
+     * @param value  待编码的数据
+     * @param writer 输出目标
+     * @throws IOException writer 写入失败
+     */
+    public static void write(Object value, Writer writer) throws IOException {
+        if (value == null) {
+            writer.write("null");
+        } else if (value instanceof Event) {
+            writeEvent((Event) value, writer);
+        } else if (value instanceof String) {
+            writeString((String) value, writer);
+        } else if (value instanceof Map) {
+            writeMap((Map<?, ?>) value, writer);
+        } else if (value instanceof Boolean) {
+            writer.write(((Boolean) value) ? "true" : "false");
+        } else if (value instanceof Number && isKnownNumber(value)) {
+            writeNumber((Number) value, writer);
+        } else if (value instanceof Collection) {
+            writeCollection((Collection<?>) value, writer);
+        } else if (value.getClass() == Date.class) {
+            writeString(DATE_FORMAT.get().format((Date) value), writer);
+        } else {
+            GSON.toJson(value, value.getClass(), writer);
+        }
+    }
+
+    private static void writeEvent(Event event, Writer writer) throws IOException {
+        if (event.getSource() != null) {
+            writeMap(event.getSource(), writer);
+            return;
+        }
+
+        writer.write("{\"type\":");
+        writeString(event.getType(), writer);
+        writeField("event", event.getEventName(), writer);
+        writer.write(",\"time\":");
+        writer.write(Long.toString(event.getTime()));
+        writeField("distinct_id", event.getDistinctId(), writer);
+        writeField("original_id", event.getOriginalId(), writer);
+        if (event.getDistinctIdType() != null) {
+            writer.write(",\"distinctIdType\":");
+            writer.write(event.getDistinctIdType().toString());
+        }
+        writeField("item_type", event.getItemType(), writer);
+        writeField("item_id", event.getItemId(), writer);
+        writeField("project", event.getProject(), writer);
+        if (event.isTimeFree()) {
+            writer.write(",\"time_free\":true");
+        }
+
+        writer.write(",\"properties\":{");
+        boolean first = true;
+        for (int i = 0, count = event.getPropertyCount(); i < count; i++) {
+            Object value = event.getPropertyValue(i);
+            if (value == null) {
+                continue;
+            }
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writeString(event.getPropertyKey(i), writer);
+            writer.write(':');
+            write(value, writer);
+        }
+        Map<String, Object> superProperties = event.getSuperProperties();
+        if (superProperties != null) {
+            for (Map.Entry<String, Object> entry : superProperties.entrySet()) {
+                if (entry.getValue() == null || event.containsProperty(entry.getKey())) {
+                    continue;
+                }
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writeString(entry.getKey(), writer);
+                writer.write(':');
+                write(entry.getValue(), writer);
+            }
+        }
+
+        writer.write("},");
+        writer.write(LIB_PREFIX);
+        writeField("$app_version", event.getAppVersion(), writer);
+        writeField("$lib_detail", event.getLibDetail(), writer);
+        writer.write("}}");
+    }
+
+    private static void writeField(String name, String value, Writer writer) throws IOException {
+        if (value == null) {
+            return;
+        }
+        writer.write(",\"");
+        writer.write(name);
+        writer.write("\":");
+        writeString(value, writer);
+    }
+
+    private static void writeMap(Map<?, ?> map, Writer writer) throws IOException {
+        writer.write('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writeString(String.valueOf(entry.getKey()), writer);
+            writer.write(':');
+            write(entry.getValue(), writer);
+        }
+        writer.write('}');
+    }
+
+    private static void writeCollection(Collection<?> collection, Writer writer) throws IOException {
+        writer.write('[');
+        Iterator<?> it = collection.iterator();
+        if (it.hasNext()) {
+            write(it.next(), writer);
+            while (it.hasNext()) {
+                writer.write(',');
+                write(it.next(), writer);
+            }
+        }
+        writer.write(']');
+    }
+
+    private static boolean isKnownNumber(Object value) {
+        Class<?> type = value.getClass();
+        return type == Integer.class || type == Long.class || type == Double.class || type == Float.class
+                || type == Short.class || type == Byte.class || type == BigDecimal.class || type == BigInteger.class;
+    }
+
+    private static void writeNumber(Number value, Writer writer) throws IOException {
+        if (value instanceof Double || value instanceof Float) {
+            double d = value.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                throw new IllegalArgumentException(d + " is not a valid double value as per JSON specification.");
+            }
+        }
+        writer.write(value.toString());
+    }
+
+    static void writeString(String value, Writer writer) throws IOException {
+        writer.write('"');
+        int last = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c < 128) {
+                replacement = REPLACEMENT_CHARS[c];
+                if (replacement == null) {
+                    continue;
+                }
+            } else if (c == '\u2028') {
+                replacement = "\\u2028";
+            } else if (c == '\u2029') {
+                replacement = "\\u2029";
+            } else {
+                continue;
+            }
+            if (last < i) {
+                writer.write(value, last, i - last);
+            }
+            writer.write(replacement);
+            last = i + 1;
+        }
+        if (last < length) {
+            writer.write(value, last, length - last);
+        }
+        writer.write('"');
+    }
+
+    /**
+     * 不加锁的 StringBuilder Writer
+     */
+    private static final class StringBuilderWriter extends Writer {
+        private final StringBuilder builder = new StringBuilder(1024);
+
+        @Override
+        public void write(int c) {
+            builder.append((char) c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            builder.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str) {
+            builder.append(str);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            builder.append(str, off, off + len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
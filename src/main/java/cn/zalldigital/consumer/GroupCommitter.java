@@ -0,0 +1,259 @@
+package cn.zalldigital.consumer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LoggerConsumer 的组提交
+ * <p>
+ * 同一个文件的所有写入（包括同一 JVM 中的多个 LoggerConsumer 实例）先放入队列，由单独的提交线程在累计数据达到指定大小、
+ * 或者第一条数据等待超过指定时间后一次性写入，每次提交只获取一次文件锁。
+ * 提交失败的数据保留在队列中，稍后重试；写入持续失败时队列仍受 maxPendingSize 限制，超过后拒绝新的数据。
+ * 关闭时提交失败会再重试一次，仍然失败则丢弃剩余数据并由 {@link #close()} 抛出异常报告丢弃的数据量。
+ */
+final class GroupCommitter {
+
+    /**
+     * 实际写入文件
+     */
+    interface Sink {
+        void commit(List<String> chunks) throws IOException;
+    }
+
+    private static final long RETRY_INTERVAL_MS = 100;
+
+    private final Sink sink;
+    private final long window;
+    private final int commitSize;
+    private final int maxPendingSize;
+    private final Thread thread;
+    private final ReentrantLock lock = new ReentrantLock();
+    /** 提交线程等待新的数据 */
+    private final Condition commitRequested = lock.newCondition();
+    /** 调用方等待数据写入文件 */
+    private final Condition committedChanged = lock.newCondition();
+
+    private List<String> pending = new ArrayList<>();
+    private long pendingSize;
+    private long firstPendingTime;
+    private long submitted;
+    private long committed;
+    private boolean urgent;
+    private boolean closed;
+    private IOException lastError;
+    /** 关闭时仍然写入失败而丢弃的数据 */
+    private int lostChunks;
+    private long lostBytes;
+
+    GroupCommitter(String name, Sink sink, long window, int commitSize) {
+        this.sink = sink;
+        this.window = window;
+        this.commitSize = commitSize;
+        this.maxPendingSize = commitSize * 4;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runCommitLoop();
+            }
+        }, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 提交一段数据，积压的数据过多时等待提交线程写入，此时最近一次写入失败则抛出异常，由调用方保留数据稍后重试
+     */
+    void submit(String chunk) {
+        lock.lock();
+        try {
+            while (pendingSize >= maxPendingSize && !closed) {
+                if (lastError != null) {
+                    throw new RuntimeException("failed to write tga file.", lastError);
+                }
+                urgent = true;
+                commitRequested.signal();
+                awaitCommitted();
+            }
+            if (pending.isEmpty()) {
+                firstPendingTime = System.currentTimeMillis();
+            }
+            pending.add(chunk);
+            pendingSize += chunk.length();
+            submitted++;
+            if (pendingSize >= commitSize) {
+                commitRequested.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 立即提交并等待调用前提交的数据全部写入文件
+     */
+    void sync() {
+        lock.lock();
+        try {
+            long target = submitted;
+            urgent = true;
+            commitRequested.signal();
+            while (committed < target) {
+                if (lastError != null) {
+                    throw new RuntimeException("failed to write tga file.", lastError);
+                }
+                if (!thread.isAlive()) {
+                    throw new IllegalStateException("Group commit thread has stopped.");
+                }
+                awaitCommitted();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写入剩余的数据后停止提交线程
+     *
+     * @throws RuntimeException 剩余的数据重试后仍然写入失败
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            commitRequested.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            if (lostChunks > 0) {
+                throw new RuntimeException("failed to write tga file, dropped " + lostChunks + " chunks ("
+                        + lostBytes + " bytes) on close.", lastError);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runCommitLoop() {
+        boolean retriedOnClose = false;
+        while (true) {
+            List<String> chunks;
+            long target;
+            lock.lock();
+            try {
+                while (!readyToCommit()) {
+                    if (pending.isEmpty() && closed) {
+                        return;
+                    }
+                    if (pending.isEmpty()) {
+                        commitRequested.await();
+                    } else {
+                        long wait = firstPendingTime + window - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            break;
+                        }
+                        commitRequested.await(wait, TimeUnit.MILLISECONDS);
+                    }
+                }
+                urgent = false;
+                if (pending.isEmpty()) {
+                    continue;
+                }
+                chunks = pending;
+                target = submitted;
+                pending = new ArrayList<>();
+                pendingSize = 0;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                sink.commit(chunks);
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+            }
+
+            lock.lock();
+            try {
+                if (error == null) {
+                    committed = target;
+                    lastError = null;
+                } else {
+                    // 放回队列头部，保持写入顺序
+                    chunks.addAll(pending);
+                    pending = chunks;
+                    pendingSize = 0;
+                    for (String chunk : chunks) {
+                        pendingSize += chunk.length();
+                    }
+                    lastError = error;
+                }
+                committedChanged.signalAll();
+                if (error != null && closed) {
+                    if (retriedOnClose) {
+                        discardPending();
+                        return;
+                    }
+                    retriedOnClose = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (error != null) {
+                try {
+                    Thread.sleep(RETRY_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 关闭时放弃写入剩余的数据并记录丢弃的数据量，调用方需持有 lock
+     */
+    private void discardPending() {
+        lostChunks = pending.size();
+        for (String chunk : pending) {
+            lostBytes += chunk.getBytes(StandardCharsets.UTF_8).length;
+        }
+        pending = new ArrayList<>();
+        pendingSize = 0;
+    }
+
+    private boolean readyToCommit() {
+        if (pending.isEmpty()) {
+            return urgent;
+        }
+        return urgent || closed || pendingSize >= commitSize
+                || System.currentTimeMillis() - firstPendingTime >= window;
+    }
+
+    /**
+     * 调用方需持有 lock
+     */
+    private void awaitCommitted() {
+        try {
+            committedChanged.await(RETRY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,121 +1,542 @@
 package cn.zalldigital.consumer;
 
 
+import cn.zalldigital.Event;
 import cn.zalldigital.ZallDataAnalytics;
+import cn.zalldigital.exception.CircuitBreakerOpenException;
 import cn.zalldigital.exception.HttpConsumerException;
-import org.apache.commons.codec.binary.Base64;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
-import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 public class HttpConsumer implements Closeable {
 
+    /**
+     * 熔断器状态
+     */
+    public enum CircuitStateEnum {
+
+        /** 正常发送 */
+        CLOSED,
+
+        /** 请求直接失败，不会发出 */
+        OPEN,
+
+        /** 只放行一个探测请求 */
+        HALF_OPEN
+    }
+
+    /**
+     * HttpConsumer 的配置信息
+     */
+    public static class Config {
+        String serverUrl;
+        Map<String, String> httpHeaders;
+        boolean gzipFlag = true;
+        int maxAttempts = 1;
+        long initialBackoff = 100;
+        long maxBackoff = 5000;
+        int circuitBreakerThreshold = 0;
+        long circuitBreakerOpenDuration = 30000;
+        int maxConnTotal = 100;
+        int maxConnPerRoute = 20;
+        int connectTimeout = -1;
+        int socketTimeout = -1;
+        int connectionRequestTimeout = -1;
+        long keepAlive = -1;
+        long connectionTimeToLive = -1;
+        long idleConnectionTimeout = 0;
+        int prewarmConnections = 0;
+
+        /**
+         * 创建指定数据接收地址的 HttpConsumer 配置
+         *
+         * @param serverUrl 数据接收地址
+         */
+        public Config(String serverUrl) {
+            this.serverUrl = serverUrl;
+        }
+
+        /**
+         * 设置请求头
+         *
+         * @param httpHeaders 请求头
+         */
+        public void setHttpHeaders(Map<String, String> httpHeaders) {
+            this.httpHeaders = httpHeaders;
+        }
+
+        /**
+         * 设置是否压缩请求数据
+         *
+         * @param gzipFlag 是否压缩，默认压缩
+         */
+        public void setGzip(boolean gzipFlag) {
+            this.gzipFlag = gzipFlag;
+        }
+
+        /**
+         * 设置每个请求的最大尝试次数。只有网络异常、5xx 和 429 状态码会重试
+         *
+         * @param maxAttempts 最大尝试次数，默认为 1，即不重试
+         */
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        /**
+         * 设置重试的退避时间。第 n 次重试前等待 [0, min(maxBackoff, initialBackoff * 2^(n-1))] 之间的随机时间
+         *
+         * @param initialBackoff 初始退避时间，单位毫秒，默认 100
+         * @param maxBackoff     最大退避时间，单位毫秒，默认 5000
+         */
+        public void setBackoff(long initialBackoff, long maxBackoff) {
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+        }
+
+        /**
+         * 开启熔断器。连续失败指定次数后熔断器打开，打开期间请求直接抛出 {@link CircuitBreakerOpenException}；
+         * 经过指定时间后放行一个探测请求，成功后恢复正常发送
+         *
+         * @param failureThreshold 连续失败次数阈值，小于等于 0 表示不开启熔断器（默认）
+         * @param openDuration     熔断器打开的时间，单位毫秒，默认 30000
+         */
+        public void setCircuitBreaker(int failureThreshold, long openDuration) {
+            this.circuitBreakerThreshold = failureThreshold;
+            this.circuitBreakerOpenDuration = openDuration;
+        }
+
+        /**
+         * 设置连接池大小
+         *
+         * @param maxConnTotal    最大连接数，默认 100
+         * @param maxConnPerRoute 每个目标地址的最大连接数，默认 20
+         */
+        public void setMaxConnections(int maxConnTotal, int maxConnPerRoute) {
+            this.maxConnTotal = maxConnTotal;
+            this.maxConnPerRoute = maxConnPerRoute;
+        }
+
+        /**
+         * 设置超时时间，单位毫秒，0 表示不超时，负数表示使用系统默认值（默认）
+         *
+         * @param connectTimeout           建立连接的超时时间
+         * @param socketTimeout            等待响应数据的超时时间
+         * @param connectionRequestTimeout 从连接池获取连接的超时时间
+         */
+        public void setTimeouts(int connectTimeout, int socketTimeout, int connectionRequestTimeout) {
+            this.connectTimeout = connectTimeout;
+            this.socketTimeout = socketTimeout;
+            this.connectionRequestTimeout = connectionRequestTimeout;
+        }
+
+        /**
+         * 设置服务端未返回 Keep-Alive 响应头时连接的保持时间
+         *
+         * @param keepAlive 保持时间，单位毫秒，负数表示一直保持（默认）
+         */
+        public void setKeepAlive(long keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        /**
+         * 设置连接的最长存活时间，超过该时间的连接不再复用
+         *
+         * @param connectionTimeToLive 存活时间，单位毫秒，负数表示不限制（默认）
+         */
+        public void setConnectionTimeToLive(long connectionTimeToLive) {
+            this.connectionTimeToLive = connectionTimeToLive;
+        }
+
+        /**
+         * 设置空闲连接的回收时间，由后台线程定期关闭空闲超过该时间的连接和已过期的连接
+         *
+         * @param idleConnectionTimeout 空闲时间，单位毫秒，小于等于 0 表示不回收（默认）
+         */
+        public void setIdleConnectionTimeout(long idleConnectionTimeout) {
+            this.idleConnectionTimeout = idleConnectionTimeout;
+        }
+
+        /**
+         * 设置创建 HttpConsumer 时预先建立的连接数，避免启动后的首批请求承担 TCP/TLS 建连开销
+         *
+         * @param prewarmConnections 预先建立的连接数，默认 0
+         */
+        public void setPrewarmConnections(int prewarmConnections) {
+            this.prewarmConnections = prewarmConnections;
+        }
+
+        /**
+         * @return 连接池至少允许 connections 个连接同时访问数据接收地址的配置，原配置已满足时返回原配置，否则返回副本
+         */
+        Config withMinConnections(int connections) {
+            if (maxConnTotal >= connections && maxConnPerRoute >= connections) {
+                return this;
+            }
+            Config copy = new Config(serverUrl);
+            copy.httpHeaders = httpHeaders;
+            copy.gzipFlag = gzipFlag;
+            copy.maxAttempts = maxAttempts;
+            copy.initialBackoff = initialBackoff;
+            copy.maxBackoff = maxBackoff;
+            copy.circuitBreakerThreshold = circuitBreakerThreshold;
+            copy.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+            copy.maxConnTotal = Math.max(maxConnTotal, connections);
+            copy.maxConnPerRoute = Math.max(maxConnPerRoute, connections);
+            copy.connectTimeout = connectTimeout;
+            copy.socketTimeout = socketTimeout;
+            copy.connectionRequestTimeout = connectionRequestTimeout;
+            copy.keepAlive = keepAlive;
+            copy.connectionTimeToLive = connectionTimeToLive;
+            copy.idleConnectionTimeout = idleConnectionTimeout;
+            copy.prewarmConnections = prewarmConnections;
+            return copy;
+        }
+    }
+
+    static final String USER_AGENT = "Zall Data Analytics Java SDK " + ZallDataAnalytics.SDK_VERSION;
+
     private CloseableHttpClient httpClient;
     private final String serverUrl;
     private final Map<String, String> httpHeaders;
     private boolean gzipFlag = true;
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final CircuitBreaker circuitBreaker;
+    private final ConsumerMetrics metrics;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private Thread idleConnectionEvictor;
 
     public HttpConsumer(String serverUrl, Map<String, String> httpHeaders) {
-        this.serverUrl = serverUrl;
-        this.httpHeaders = httpHeaders;
-        initHttpClient();
+        this(serverUrl, httpHeaders, true);
     }
 
     public HttpConsumer(String serverUrl, Map<String, String> httpHeaders, boolean gzipFlag) {
-        this.serverUrl = serverUrl;
-        this.httpHeaders = httpHeaders;
-        this.gzipFlag = gzipFlag;
-        initHttpClient();
+        this(newConfig(serverUrl, httpHeaders, gzipFlag));
+    }
+
+    public HttpConsumer(Config config) {
+        this(config, new ConsumerMetrics("HttpConsumer"));
     }
 
-    private void initHttpClient() {
+    /**
+     * 使用外层 Consumer 的运行指标，记录序列化、压缩和请求的耗时
+     */
+    HttpConsumer(Config config, ConsumerMetrics metrics) {
+        this.metrics = metrics;
+        this.serverUrl = config.serverUrl;
+        this.httpHeaders = config.httpHeaders;
+        this.gzipFlag = config.gzipFlag;
+        this.maxAttempts = Math.max(1, config.maxAttempts);
+        this.initialBackoff = Math.max(1, config.initialBackoff);
+        this.maxBackoff = Math.max(this.initialBackoff, config.maxBackoff);
+        this.circuitBreaker = config.circuitBreakerThreshold > 0
+                ? new CircuitBreaker(config.circuitBreakerThreshold, config.circuitBreakerOpenDuration) : null;
+        initHttpClient(config);
+    }
+
+    private static Config newConfig(String serverUrl, Map<String, String> httpHeaders, boolean gzipFlag) {
+        Config config = new Config(serverUrl);
+        config.setHttpHeaders(httpHeaders);
+        config.setGzip(gzipFlag);
+        return config;
+    }
+
+    private void initHttpClient(final Config config) {
         if (httpClient == null) {
             synchronized (this) {
                 if (httpClient == null) {
-                    httpClient = HttpClients.custom().setUserAgent("Zall Data Analytics Java SDK " + ZallDataAnalytics.SDK_VERSION)
-                            .setMaxConnTotal(100)
+                    connectionManager = new PoolingHttpClientConnectionManager(config.connectionTimeToLive,
+                            TimeUnit.MILLISECONDS);
+                    connectionManager.setMaxTotal(Math.max(1, config.maxConnTotal));
+                    connectionManager.setDefaultMaxPerRoute(Math.max(1, config.maxConnPerRoute));
+
+                    RequestConfig requestConfig = RequestConfig.custom()
+                            .setConnectTimeout(config.connectTimeout)
+                            .setSocketTimeout(config.socketTimeout)
+                            .setConnectionRequestTimeout(config.connectionRequestTimeout)
                             .build();
+
+                    HttpClientBuilder builder = HttpClients.custom()
+                            .setUserAgent(USER_AGENT)
+                            .setConnectionManager(connectionManager)
+                            .setDefaultRequestConfig(requestConfig);
+                    if (config.keepAlive >= 0) {
+                        builder.setKeepAliveStrategy(new KeepAliveStrategy(config.keepAlive));
+                    }
+                    httpClient = builder.build();
+
+                    if (config.idleConnectionTimeout > 0) {
+                        idleConnectionEvictor = new Thread(new IdleConnectionEvictor(connectionManager,
+                                config.idleConnectionTimeout), "ZallDataAnalytics-HttpConsumer-IdleConnectionEvictor");
+                        idleConnectionEvictor.setDaemon(true);
+                        idleConnectionEvictor.start();
+                    }
+                    if (config.prewarmConnections > 0) {
+                        prewarm(Math.min(config.prewarmConnections, Math.max(1, config.maxConnPerRoute)),
+                                config.connectTimeout);
+                    }
                 }
             }
         }
     }
 
+    /**
+     * 预先建立连接并放回连接池。所有连接同时从连接池取出，保证建立的是不同的连接；建连失败不影响后续发送
+     */
+    private void prewarm(int count, int connectTimeout) {
+        HttpRoute route;
+        try {
+            URI uri = new URI(serverUrl);
+            boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+            int port = uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80);
+            route = new HttpRoute(new HttpHost(uri.getHost(), port, uri.getScheme()), null, secure);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+
+        List<HttpClientConnection> connections = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                HttpClientConnection connection = connectionManager.requestConnection(route, null)
+                        .get(Math.max(connectTimeout, 0), TimeUnit.MILLISECONDS);
+                connections.add(connection);
+                if (!connection.isOpen()) {
+                    HttpClientContext context = HttpClientContext.create();
+                    connectionManager.connect(connection, route, Math.max(connectTimeout, 0), context);
+                    connectionManager.routeComplete(connection, route, context);
+                    // httpcore 4.3 在首次读写时才绑定输入输出流，未绑定的连接无法通过复用前的状态检查
+                    connection.flush();
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            for (HttpClientConnection connection : connections) {
+                connectionManager.releaseConnection(connection, null, -1, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
     public void consume(final String data) throws IOException, HttpConsumerException {
-        HttpUriRequest request = getHttpRequest(data);
+        consume(new RequestBodyEncoder.BodyWriter() {
+            @Override
+            public void writeTo(Writer writer) throws IOException {
+                writer.write(data);
+            }
+        }, data);
+    }
+
+    /**
+     * 将一批数据序列化后直接写入请求体并发送，只在请求失败时才生成完整的 JSON 字符串
+     *
+     * @param messages 待发送的数据
+     * @throws IOException           网络异常
+     * @throws HttpConsumerException 服务端返回非 2xx 状态码
+     */
+    public void consume(final List<Event> messages) throws IOException, HttpConsumerException {
+        consume(new RequestBodyEncoder.BodyWriter() {
+            @Override
+            public void writeTo(Writer writer) throws IOException {
+                EventEncoder.write(messages, writer);
+            }
+        }, null);
+    }
+
+    private void consume(final RequestBodyEncoder.BodyWriter bodyWriter, final String data)
+            throws IOException, HttpConsumerException {
+        RequestBodyEncoder encoder = RequestBodyEncoder.acquire();
+        long bufferedBytes = 0;
+        try {
+            long start = System.nanoTime();
+            HttpEntity entity = encoder.encode(bodyWriter, gzipFlag);
+            long compressNanos = encoder.getCompressNanos();
+            metrics.getSerializeLatency().record(System.nanoTime() - start - compressNanos);
+            if (gzipFlag) {
+                metrics.getCompressLatency().record(compressNanos);
+            }
+            bufferedBytes = entity.getContentLength();
+            metrics.addBuffered(0, bufferedBytes);
+            Exception lastError = null;
+            for (int attempt = 1; ; attempt++) {
+                if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+                    if (lastError != null) {
+                        break;
+                    }
+                    long retryDelay = circuitBreaker.getRetryDelay();
+                    throw new CircuitBreakerOpenException(
+                            String.format("Circuit breaker is open, retry after %d ms.", retryDelay), retryDelay);
+                }
+                try {
+                    execute(entity, bodyWriter, data);
+                    onResponse(true);
+                    return;
+                } catch (HttpConsumerException e) {
+                    if (!isRetryable(e.getHttpStatusCode())) {
+                        // 服务端可以正常响应，不计入熔断器的失败次数
+                        onResponse(true);
+                        throw e;
+                    }
+                    onResponse(false);
+                    lastError = e;
+                } catch (IOException e) {
+                    onResponse(false);
+                    lastError = e;
+                } catch (RuntimeException e) {
+                    onResponse(false);
+                    throw e;
+                }
+                if (attempt >= maxAttempts || !backoff(attempt)) {
+                    break;
+                }
+            }
+            if (lastError instanceof HttpConsumerException) {
+                throw (HttpConsumerException) lastError;
+            }
+            throw (IOException) lastError;
+        } finally {
+            metrics.addBuffered(0, -bufferedBytes);
+            encoder.release();
+        }
+    }
+
+    private void execute(HttpEntity entity, RequestBodyEncoder.BodyWriter bodyWriter, String data)
+            throws IOException, HttpConsumerException {
         CloseableHttpResponse response = null;
+        long start = System.nanoTime();
+        boolean success = false;
         try {
-            response = httpClient.execute(request);
+            response = httpClient.execute(getHttpRequest(entity));
             int httpStatusCode = response.getStatusLine().getStatusCode();
             if (httpStatusCode < 200 || httpStatusCode >= 300) {
                 String httpContent = new String(EntityUtils.toByteArray(response.getEntity()), StandardCharsets.UTF_8);
+                String sendingData = data;
+                if (sendingData == null) {
+                    StringWriter writer = new StringWriter();
+                    bodyWriter.writeTo(writer);
+                    sendingData = writer.toString();
+                }
 
                 throw new HttpConsumerException(
                         String.format("Unexpected response %d from Zall Data Analytics: %s", httpStatusCode, httpContent),
-                        data, httpStatusCode, httpContent);
+                        sendingData, httpStatusCode, httpContent);
             }
+            success = true;
         } finally {
             if (response != null) {
                 response.close();
             }
+            metrics.addRequest(entity.getContentLength(), System.nanoTime() - start, success);
         }
     }
 
-    HttpUriRequest getHttpRequest(final String data) throws IOException {
-        HttpPost httpPost = new HttpPost(this.serverUrl);
-        httpPost.setEntity(getHttpEntry(data));
+    static boolean isRetryable(int httpStatusCode) {
+        return httpStatusCode >= 500 || httpStatusCode == 429;
+    }
 
-        if (this.httpHeaders != null) {
-            for (Map.Entry<String, String> entry : this.httpHeaders.entrySet()) {
-                httpPost.addHeader(entry.getKey(), entry.getValue());
-            }
+    private void onResponse(boolean success) {
+        if (circuitBreaker == null) {
+            return;
         }
+        if (success) {
+            circuitBreaker.onSuccess();
+        } else {
+            circuitBreaker.onFailure();
+        }
+    }
 
-        return httpPost;
+    /**
+     * 等待指数增长且带随机抖动的退避时间，避免服务端恢复时所有线程同时重试
+     *
+     * @return 等待期间线程被中断时返回 false
+     */
+    private boolean backoff(int attempt) {
+        try {
+            Thread.sleep(backoffDelay(initialBackoff, maxBackoff, attempt));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
-    StringEntity getHttpEntry(final String data) throws IOException {
-        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+    /**
+     * @return 第 attempt 次尝试失败后的退避时间，在 [0, min(maxBackoff, initialBackoff * 2^(attempt-1))] 之间随机选取
+     */
+    static long backoffDelay(long initialBackoff, long maxBackoff, int attempt) {
+        long ceiling = initialBackoff << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxBackoff) {
+            ceiling = maxBackoff;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
 
-        List<NameValuePair> nameValuePairs = new ArrayList<>();
+    /**
+     * @return 熔断器状态，未开启熔断器时始终为 {@link CircuitStateEnum#CLOSED}
+     */
+    public CircuitStateEnum getCircuitState() {
+        return circuitBreaker == null ? CircuitStateEnum.CLOSED : circuitBreaker.getState();
+    }
 
-        if (gzipFlag) {
-            ByteArrayOutputStream os = new ByteArrayOutputStream(bytes.length);
-            GZIPOutputStream gos = new GZIPOutputStream(os);
-            gos.write(bytes);
-            gos.close();
-            byte[] compressed = os.toByteArray();
-            os.close();
+    /**
+     * @return 运行指标，被 BatchConsumer 等使用时与其共用
+     */
+    public ConsumerMetrics getMetrics() {
+        return metrics;
+    }
 
-            nameValuePairs.add(new BasicNameValuePair("gzip", "1"));
-            nameValuePairs.add(new BasicNameValuePair("data_list", new String(Base64.encodeBase64
-                    (compressed))));
-        } else {
-            nameValuePairs.add(new BasicNameValuePair("gzip", "0"));
-            nameValuePairs.add(new BasicNameValuePair("data_list", new String(Base64.encodeBase64
-                    (bytes))));
+    HttpUriRequest getHttpRequest(final HttpEntity entity) {
+        return newHttpPost(this.serverUrl, this.httpHeaders, entity);
+    }
+
+    static HttpPost newHttpPost(String serverUrl, Map<String, String> httpHeaders, HttpEntity entity) {
+        HttpPost httpPost = new HttpPost(serverUrl);
+        httpPost.setEntity(entity);
+
+        if (httpHeaders != null) {
+            for (Map.Entry<String, String> entry : httpHeaders.entrySet()) {
+                httpPost.addHeader(entry.getKey(), entry.getValue());
+            }
         }
 
-        return new UrlEncodedFormEntity(nameValuePairs);
+        return httpPost;
     }
 
     @Override
     public void close() {
+        if (idleConnectionEvictor != null) {
+            idleConnectionEvictor.interrupt();
+        }
         try {
             if (httpClient != null) {
                 synchronized (this) {
@@ -129,4 +550,48 @@ public class HttpConsumer implements Closeable {
             e.printStackTrace();
         }
     }
+
+    /**
+     * 优先使用服务端返回的 Keep-Alive 超时时间，未返回时使用配置的保持时间
+     */
+    static class KeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        private final long keepAlive;
+
+        KeepAliveStrategy(long keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? duration : keepAlive;
+        }
+    }
+
+    /**
+     * 定期关闭过期和空闲超时的连接。HttpClient 4.3 没有内置的空闲连接回收
+     */
+    private static class IdleConnectionEvictor implements Runnable {
+        private final PoolingHttpClientConnectionManager connectionManager;
+        private final long idleTimeout;
+
+        IdleConnectionEvictor(PoolingHttpClientConnectionManager connectionManager, long idleTimeout) {
+            this.connectionManager = connectionManager;
+            this.idleTimeout = idleTimeout;
+        }
+
+        @Override
+        public void run() {
+            long interval = Math.max(idleTimeout / 2, 1000);
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
 }
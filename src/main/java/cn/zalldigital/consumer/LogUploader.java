@@ -0,0 +1,671 @@
+package cn.zalldigital.consumer;
+
+import cn.zalldigital.exception.CircuitBreakerOpenException;
+import cn.zalldigital.exception.HttpConsumerException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 上传 LoggerConsumer 写入的日志文件
+ * <p>
+ * 读取线程定期扫描日志目录下的 log.* 文件（包括切分后压缩的 .gz 文件），从上次读取的位置开始读取完整的行，组成批次后交给发送线程，
+ * 由多个发送线程通过 {@link HttpConsumer} 同时发送。每个文件已发送成功的位置（未压缩数据的字节偏移）记录在检查点文件中，
+ * 只有某个位置之前的批次全部发送成功后才会前移，重启后从该位置继续上传。
+ * <p>
+ * 进程在发送成功与写入检查点之间退出时，部分批次会在重启后重复发送。同一个日志目录只能由一个 LogUploader 上传，
+ * 检查点文件通过文件锁保护。
+ * <p>
+ * 服务端拒绝的批次（非 5xx、429 的错误状态码）会拆分后重新发送，直到找出被拒绝的单条数据。被拒绝的数据追加到日志目录下的
+ * .[前缀.]uploader.rejected 文件中，其余数据正常发送。
+ */
+public class LogUploader implements Closeable {
+
+    /**
+     * LogUploader 的配置信息
+     */
+    public static class Config {
+        HttpConsumer.Config httpConfig;
+        String logPath;
+        String fileNamePrefix;
+        String checkpointFile;
+        int bulkSize = 50;
+        int maxInFlight = 4;
+        long pollInterval = 1000;
+
+        /**
+         * 创建上传指定日志目录到指定数据接收地址的 LogUploader 配置
+         *
+         * @param logPath   日志存放路径，与 LoggerConsumer 的配置相同
+         * @param serverUrl 数据接收地址
+         */
+        public Config(String logPath, String serverUrl) {
+            this(logPath, new HttpConsumer.Config(serverUrl));
+        }
+
+        /**
+         * 使用指定的 HttpConsumer 配置（重试、熔断等）创建 LogUploader 配置
+         *
+         * @param logPath    日志存放路径，与 LoggerConsumer 的配置相同
+         * @param httpConfig HttpConsumer 配置
+         */
+        public Config(String logPath, HttpConsumer.Config httpConfig) {
+            this.logPath = logPath;
+            this.httpConfig = httpConfig;
+        }
+
+        /**
+         * 设置日志文件前缀，与 LoggerConsumer 的配置相同
+         *
+         * @param fileNamePrefix 文件前缀名
+         */
+        public void setFilenamePrefix(String fileNamePrefix) {
+            this.fileNamePrefix = fileNamePrefix;
+        }
+
+        /**
+         * 设置检查点文件
+         *
+         * @param checkpointFile 检查点文件，默认为日志目录下的 .[前缀.]uploader.checkpoint
+         */
+        public void setCheckpointFile(String checkpointFile) {
+            this.checkpointFile = checkpointFile;
+        }
+
+        /**
+         * 设置每个批次的最大数据条数
+         *
+         * @param bulkSize 批次大小，默认 50
+         */
+        public void setBulkSize(int bulkSize) {
+            this.bulkSize = bulkSize;
+        }
+
+        /**
+         * 设置同时发送的最大批次数
+         *
+         * @param maxInFlight 最大批次数，默认 4
+         */
+        public void setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        /**
+         * 设置没有新数据时扫描日志目录的时间间隔，也是检查点的最长写入间隔
+         *
+         * @param pollInterval 时间间隔，单位毫秒，默认 1000
+         */
+        public void setPollInterval(long pollInterval) {
+            this.pollInterval = pollInterval;
+        }
+    }
+
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    private final File logDirectory;
+    private final String filePrefix;
+    private final File checkpointFile;
+    private final File rejectedFile;
+    private final int bulkSize;
+    private final long pollInterval;
+    private final HttpConsumer httpConsumer;
+    private final BlockingQueue<Batch> batchQueue;
+    private final Thread reader;
+    private final Thread[] senders;
+    private final RandomAccessFile lockFile;
+    private final FileLock checkpointLock;
+    private final Map<String, TrackedFile> trackedFiles = new HashMap<>();
+    private final Object pollLock = new Object();
+    private final AtomicLong uploadedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    private volatile boolean running = true;
+    /** 读取线程已退出，不会再有新的批次 */
+    private volatile boolean readerStopped;
+
+    public LogUploader(final Config config) {
+        this.logDirectory = new File(config.logPath);
+        this.filePrefix = config.fileNamePrefix == null ? "log." : config.fileNamePrefix + ".log.";
+        this.checkpointFile = config.checkpointFile != null ? new File(config.checkpointFile)
+                : new File(logDirectory, config.fileNamePrefix == null ? ".uploader.checkpoint"
+                : "." + config.fileNamePrefix + ".uploader.checkpoint");
+        this.rejectedFile = new File(logDirectory, config.fileNamePrefix == null ? ".uploader.rejected"
+                : "." + config.fileNamePrefix + ".uploader.rejected");
+        this.bulkSize = Math.max(1, config.bulkSize);
+        this.pollInterval = Math.max(1, config.pollInterval);
+        int maxInFlight = Math.max(1, config.maxInFlight);
+
+        try {
+            this.lockFile = new RandomAccessFile(checkpointFile.getPath() + ".lock", "rw");
+            FileLock lock = lockFile.getChannel().tryLock();
+            if (lock == null) {
+                lockFile.close();
+                throw new IllegalStateException("Another LogUploader is using checkpoint file " + checkpointFile);
+            }
+            this.checkpointLock = lock;
+            loadCheckpoint();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open checkpoint file " + checkpointFile, e);
+        }
+
+        this.httpConsumer = new HttpConsumer(config.httpConfig);
+        this.batchQueue = new ArrayBlockingQueue<>(maxInFlight);
+        this.senders = new Thread[maxInFlight];
+        for (int i = 0; i < senders.length; i++) {
+            senders[i] = new Thread(new Sender(), "ZallDataAnalytics-LogUploader-Sender-" + i);
+            senders[i].setDaemon(true);
+            senders[i].start();
+        }
+        this.reader = new Thread(new Reader(), "ZallDataAnalytics-LogUploader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    /**
+     * @return 已发送成功的数据条数
+     */
+    public long getUploadedCount() {
+        return uploadedCount.get();
+    }
+
+    /**
+     * @return 被服务端拒绝、写入 .uploader.rejected 文件后跳过的数据条数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * 停止读取新的数据，等待已读取的批次发送完成（发送失败的批次不再重试，重启后重新发送）后写入检查点
+     */
+    @Override
+    public void close() {
+        running = false;
+        synchronized (pollLock) {
+            pollLock.notifyAll();
+        }
+        try {
+            // 读取线程退出前发送线程继续取出批次，读取线程不会阻塞在已满的队列上
+            reader.join();
+            readerStopped = true;
+            for (Thread sender : senders) {
+                sender.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            saveCheckpoint();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        httpConsumer.close();
+        try {
+            checkpointLock.release();
+            lockFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 扫描日志目录，读取所有文件中的新数据
+     *
+     * @return 是否读取到新的数据
+     */
+    private boolean poll() throws InterruptedException {
+        File[] files = logDirectory.listFiles();
+        if (files == null) {
+            return false;
+        }
+        Map<String, Boolean> present = new TreeMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(filePrefix) || name.endsWith(SegmentCompressor.TEMP_SUFFIX)) {
+                continue;
+            }
+            if (name.endsWith(SegmentCompressor.SUFFIX)) {
+                String logicalName = name.substring(0, name.length() - SegmentCompressor.SUFFIX.length());
+                if (!present.containsKey(logicalName)) {
+                    present.put(logicalName, true);
+                }
+            } else {
+                // 压缩过程中原文件和压缩文件同时存在，读取原文件
+                present.put(name, false);
+            }
+        }
+
+        boolean read = false;
+        for (Map.Entry<String, Boolean> entry : present.entrySet()) {
+            if (!running) {
+                break;
+            }
+            TrackedFile tracked;
+            synchronized (trackedFiles) {
+                tracked = trackedFiles.get(entry.getKey());
+                if (tracked == null) {
+                    tracked = new TrackedFile(entry.getKey(), 0, false);
+                    trackedFiles.put(entry.getKey(), tracked);
+                }
+            }
+            try {
+                read |= entry.getValue() ? readCompressed(tracked) : readPlain(tracked);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        synchronized (trackedFiles) {
+            Iterator<TrackedFile> iterator = trackedFiles.values().iterator();
+            while (iterator.hasNext()) {
+                TrackedFile tracked = iterator.next();
+                if (!present.containsKey(tracked.name) && tracked.isSettled()) {
+                    iterator.remove();
+                }
+            }
+        }
+        return read;
+    }
+
+    private boolean readPlain(TrackedFile tracked) throws IOException, InterruptedException {
+        File file = new File(logDirectory, tracked.name);
+        if (file.length() <= tracked.readOffset) {
+            return false;
+        }
+        try (FileInputStream in = new FileInputStream(file)) {
+            in.getChannel().position(tracked.readOffset);
+            return readLines(tracked, in);
+        }
+    }
+
+    private boolean readCompressed(TrackedFile tracked) throws IOException, InterruptedException {
+        if (tracked.exhausted) {
+            return false;
+        }
+        try (InputStream in = new GZIPInputStream(new FileInputStream(new File(logDirectory,
+                tracked.name + SegmentCompressor.SUFFIX)), READ_BUFFER_SIZE)) {
+            long skipped = 0;
+            while (skipped < tracked.readOffset) {
+                long n = in.skip(tracked.readOffset - skipped);
+                if (n <= 0) {
+                    break;
+                }
+                skipped += n;
+            }
+            boolean read = skipped == tracked.readOffset && readLines(tracked, in);
+            if (!running) {
+                // 关闭时可能没有读完，重启后从检查点继续读取
+                return read;
+            }
+            // 压缩文件不会再有新数据，末尾不完整的行直接忽略
+            synchronized (tracked) {
+                tracked.exhausted = true;
+            }
+            return read;
+        }
+    }
+
+    /**
+     * 从 tracked.readOffset 开始读取完整的行并组成批次，末尾不完整的行留到下次读取。
+     * 内存映射方式写入的文件末尾是预先分配的 0 字节，遇到以 0 字节开头的行时停止读取。关闭后不再提交新的批次
+     */
+    private boolean readLines(TrackedFile tracked, InputStream in) throws IOException, InterruptedException {
+        BatchBuilder batch = new BatchBuilder(tracked, tracked.readOffset);
+        long bufferOffset = tracked.readOffset;
+        int length = 0;
+        boolean read = false;
+        while (running) {
+            if (length == readBuffer.length) {
+                readBuffer = Arrays.copyOf(readBuffer, readBuffer.length * 2);
+            }
+            int n = in.read(readBuffer, length, readBuffer.length - length);
+            if (n < 0) {
+                break;
+            }
+            length += n;
+
+            int lineStart = 0;
+            boolean reachedEnd = false;
+            for (int i = 0; i < length; i++) {
+                if (readBuffer[i] == '\n') {
+                    batch.add(readBuffer, lineStart, i, bufferOffset + i + 1);
+                    if (batch.count >= bulkSize) {
+                        if (!submit(batch.build())) {
+                            return read;
+                        }
+                        batch = new BatchBuilder(tracked, bufferOffset + i + 1);
+                    }
+                    lineStart = i + 1;
+                    read = true;
+                } else if (i == lineStart && readBuffer[i] == 0) {
+                    reachedEnd = true;
+                    break;
+                }
+            }
+            System.arraycopy(readBuffer, lineStart, readBuffer, 0, length - lineStart);
+            bufferOffset += lineStart;
+            length -= lineStart;
+            if (reachedEnd) {
+                break;
+            }
+        }
+        if (batch.end > batch.start) {
+            submit(batch.build());
+        }
+        return read;
+    }
+
+    /**
+     * 将批次交给发送线程，队列已满时等待，期间关闭则放弃该批次并回退读取位置
+     *
+     * @return 批次是否已提交
+     */
+    private boolean submit(Batch batch) throws InterruptedException {
+        if (!running) {
+            return false;
+        }
+        synchronized (batch.file) {
+            batch.file.readOffset = batch.end;
+            batch.file.outstanding++;
+        }
+        if (batch.count == 0) {
+            // 只有空行，不需要发送
+            onBatchDone(batch);
+            return true;
+        }
+        while (!batchQueue.offer(batch, pollInterval, TimeUnit.MILLISECONDS)) {
+            if (!running) {
+                synchronized (batch.file) {
+                    batch.file.readOffset = batch.start;
+                    batch.file.outstanding--;
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void onBatchDone(Batch batch) {
+        TrackedFile file = batch.file;
+        synchronized (file) {
+            file.outstanding--;
+            file.completed.put(batch.start, batch.end);
+            Long end;
+            while ((end = file.completed.remove(file.committedOffset)) != null) {
+                file.committedOffset = end;
+            }
+        }
+    }
+
+    private void loadCheckpoint() throws IOException {
+        if (!checkpointFile.exists()) {
+            return;
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(checkpointFile),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length < 3) {
+                    continue;
+                }
+                trackedFiles.put(fields[2], new TrackedFile(fields[2], Long.parseLong(fields[0]), "1".equals(fields[1])));
+            }
+        }
+    }
+
+    /**
+     * 先写入临时文件，再原子重命名为检查点文件
+     */
+    private void saveCheckpoint() throws IOException {
+        List<TrackedFile> snapshot;
+        synchronized (trackedFiles) {
+            snapshot = new ArrayList<>(trackedFiles.values());
+        }
+        File temp = new File(checkpointFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            for (TrackedFile file : snapshot) {
+                synchronized (file) {
+                    if (file.committedOffset == 0 && !file.exhausted) {
+                        continue;
+                    }
+                    writer.write(file.committedOffset + "\t" + (file.isSettled() && file.exhausted ? "1" : "0")
+                            + "\t" + file.name + "\n");
+                }
+            }
+            writer.flush();
+            out.getChannel().force(false);
+        }
+        Files.move(temp.toPath(), checkpointFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private class Reader implements Runnable {
+        @Override
+        public void run() {
+            long lastCheckpoint = System.currentTimeMillis();
+            while (running) {
+                boolean read;
+                try {
+                    read = poll();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    read = false;
+                }
+                if (System.currentTimeMillis() - lastCheckpoint >= pollInterval) {
+                    try {
+                        saveCheckpoint();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    lastCheckpoint = System.currentTimeMillis();
+                }
+                if (!read) {
+                    synchronized (pollLock) {
+                        if (!running) {
+                            break;
+                        }
+                        try {
+                            pollLock.wait(pollInterval);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private class Sender implements Runnable {
+        @Override
+        public void run() {
+            while (!readerStopped || !batchQueue.isEmpty()) {
+                Batch batch;
+                try {
+                    batch = batchQueue.poll(pollInterval, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (batch != null && send(batch.lines)) {
+                    onBatchDone(batch);
+                }
+            }
+        }
+
+        /**
+         * 发送失败时等待后重试，直到发送成功或者关闭。服务端拒绝时拆分为两半分别发送，只跳过被拒绝的单条数据
+         *
+         * @return 数据是否已处理完成
+         */
+        private boolean send(List<String> lines) {
+            while (true) {
+                long retryDelay = pollInterval;
+                try {
+                    httpConsumer.consume(toJsonArray(lines));
+                    uploadedCount.addAndGet(lines.size());
+                    return true;
+                } catch (HttpConsumerException e) {
+                    if (!HttpConsumer.isRetryable(e.getHttpStatusCode())) {
+                        // 服务端拒绝的数据重试也不会成功
+                        if (lines.size() == 1) {
+                            reject(lines.get(0), e);
+                            return true;
+                        }
+                        int middle = lines.size() / 2;
+                        return send(lines.subList(0, middle)) && send(lines.subList(middle, lines.size()));
+                    }
+                } catch (CircuitBreakerOpenException e) {
+                    retryDelay = Math.max(e.getRetryDelay(), 1);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                synchronized (pollLock) {
+                    if (!running) {
+                        return false;
+                    }
+                    try {
+                        pollLock.wait(retryDelay);
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 将被服务端拒绝的数据追加到 rejectedFile，写入失败时只计数
+     */
+    private void reject(String line, HttpConsumerException e) {
+        e.printStackTrace();
+        rejectedCount.incrementAndGet();
+        synchronized (rejectedFile) {
+            try (FileOutputStream out = new FileOutputStream(rejectedFile, true)) {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 将多行 JSON 拼接为 JSON 数组
+     */
+    private static String toJsonArray(List<String> lines) {
+        int length = 2;
+        for (String line : lines) {
+            length += line.length() + 1;
+        }
+        StringBuilder sb = new StringBuilder(length);
+        sb.append('[');
+        for (int i = 0; i < lines.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(lines.get(i));
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * 一个日志文件的读取和发送进度，压缩前后的文件视为同一个文件
+     */
+    private static final class TrackedFile {
+        final String name;
+        /** 下一次读取的位置 */
+        long readOffset;
+        /** 该位置之前的批次已全部发送成功 */
+        long committedOffset;
+        /** 发送完成但之前仍有未完成批次的区间 */
+        final TreeMap<Long, Long> completed = new TreeMap<>();
+        int outstanding;
+        /** 压缩文件已读取完毕 */
+        boolean exhausted;
+
+        TrackedFile(String name, long offset, boolean exhausted) {
+            this.name = name;
+            this.readOffset = offset;
+            this.committedOffset = offset;
+            this.exhausted = exhausted;
+        }
+
+        synchronized boolean isSettled() {
+            return outstanding == 0 && committedOffset == readOffset;
+        }
+    }
+
+    private static final class Batch {
+        final TrackedFile file;
+        final long start;
+        final long end;
+        /** 批次中的非空行，发送时拼接为 JSON 数组 */
+        final List<String> lines;
+        final int count;
+
+        Batch(TrackedFile file, long start, long end, List<String> lines) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.lines = lines;
+            this.count = lines.size();
+        }
+    }
+
+    private static final class BatchBuilder {
+        final TrackedFile file;
+        final long start;
+        final List<String> lines = new ArrayList<>();
+        long end;
+        int count;
+
+        BatchBuilder(TrackedFile file, long start) {
+            this.file = file;
+            this.start = start;
+            this.end = start;
+        }
+
+        void add(byte[] buffer, int from, int to, long lineEnd) {
+            end = lineEnd;
+            if (to > from && buffer[to - 1] == '\r') {
+                to--;
+            }
+            if (to == from) {
+                return;
+            }
+            lines.add(new String(buffer, from, to - from, StandardCharsets.UTF_8));
+            count++;
+        }
+
+        Batch build() {
+            return new Batch(file, start, end, lines);
+        }
+    }
+}
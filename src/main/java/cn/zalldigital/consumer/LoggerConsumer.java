@@ -1,19 +1,24 @@
 package cn.zalldigital.consumer;
 
-import com.google.gson.Gson;
+import cn.zalldigital.Event;
 import com.google.gson.JsonIOException;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class LoggerConsumer implements Consumer{
 
@@ -29,6 +34,53 @@ public class LoggerConsumer implements Consumer{
         HOURLY
     }
 
+    /**
+     * 日志文件写入方式
+     */
+    public enum AppenderEnum {
+
+        /** 通过 FileOutputStream 追加写入，支持多个进程写入同一个文件，此时按大小切分需开启 {@link Config#setSharedFile(boolean)} */
+        STREAM,
+
+        /**
+         * 通过内存映射写入，吞吐量更高，同一个文件只能由一个进程写入。
+         * 正在写入的文件末尾是预先分配的 0 字节，关闭时才截断，进程异常退出后直到再次打开该文件时才截断；
+         * 实时读取（tail）正在写入文件的外部采集工具会读到这些 0 字节，不支持与此方式同时使用，
+         * 需要上传正在写入的文件时使用 {@link LogUploader}，它会在 0 字节处停止读取
+         */
+        MMAP
+    }
+
+    /**
+     * 数据写入磁盘（fsync）的策略
+     */
+    public enum DurabilityEnum {
+
+        /** 不主动写入磁盘，由操作系统决定何时写入，主机崩溃时会丢失操作系统缓存中的数据 */
+        NONE,
+
+        /** 由后台线程按固定时间间隔写入磁盘，最多丢失一个时间间隔内的数据 */
+        INTERVAL,
+
+        /** 调用 flush 时写入磁盘，同时调用 flush 的多个线程共用一次写入；开启组提交时每次提交写入一次 */
+        GROUP,
+
+        /** 每次写入文件后都写入磁盘 */
+        EVERY_FLUSH
+    }
+
+    /**
+     * 切分后日志文件的压缩方式
+     */
+    public enum CompressionEnum {
+
+        /** 不压缩 */
+        NONE,
+
+        /** 压缩为 gzip 格式（.gz） */
+        GZIP
+    }
+
     /**
      * LoggerConsumer 的配置信息
      */
@@ -38,7 +90,17 @@ public class LoggerConsumer implements Consumer{
         String lockFileName;
         String fileNamePrefix;
         int fileSize = 0;
+        boolean sharedFile;
         int bufferSize = 8192;
+        AppenderEnum appenderEnum = AppenderEnum.STREAM;
+        int mmapRegionSize = 64;
+        long groupCommitWindow = 0;
+        int groupCommitSize = 1024 * 1024;
+        DurabilityEnum durabilityEnum = DurabilityEnum.NONE;
+        long fsyncInterval = 1000;
+        CompressionEnum compressionEnum = CompressionEnum.NONE;
+        int maxBufferSize = 0;
+        BackpressurePolicy backpressurePolicy = BackpressurePolicy.block(-1);
         /**
          * 创建指定日志存放路径的 LoggerConsumer 配置
          *
@@ -77,6 +139,16 @@ public class LoggerConsumer implements Consumer{
             this.fileSize = fileSize;
         }
 
+        /**
+         * 设置日志文件是否同时由多个进程写入。开启后按大小切分时读取文件的实际长度，计入其他进程写入的数据；
+         * 未开启时只按本进程写入的长度判断，写入过程不访问文件系统的元数据
+         *
+         * @param sharedFile 是否由多个进程写入，默认 false
+         */
+        public void setSharedFile(boolean sharedFile) {
+            this.sharedFile = sharedFile;
+        }
+
         public void setLockFile(String lockFileName) {
             this.lockFileName = lockFileName;
         }
@@ -90,6 +162,85 @@ public class LoggerConsumer implements Consumer{
             this.bufferSize = bufferSize;
         }
 
+        /**
+         * 设置日志文件写入方式。使用外部采集工具实时读取正在写入的文件时只能使用 {@link AppenderEnum#STREAM}
+         *
+         * @param appenderEnum 写入方式，默认 {@link AppenderEnum#STREAM}
+         */
+        public void setAppenderEnum(AppenderEnum appenderEnum) {
+            this.appenderEnum = appenderEnum;
+        }
+
+        /**
+         * 设置 {@link AppenderEnum#MMAP} 方式每次映射的区域大小，写满后映射下一个区域
+         *
+         * @param mmapRegionSize 区域大小，单位 MB，默认 64，最大 1024
+         */
+        public void setMmapRegionSize(int mmapRegionSize) {
+            this.mmapRegionSize = mmapRegionSize;
+        }
+
+        /**
+         * 开启组提交：同一个文件的写入（包括同一 JVM 中的多个 LoggerConsumer 实例）由单独的线程合并后写入，
+         * 累计数据达到 groupCommitSize 或者等待超过 groupCommitWindow 时提交一次，每次提交只获取一次文件锁。
+         * 开启后 send 不再等待写文件，flush 和 close 等待之前的数据写入文件后返回。
+         * 同一个文件由第一个打开它的 LoggerConsumer 的配置决定是否开启
+         *
+         * @param groupCommitWindow 最长等待时间，单位毫秒，默认 0 即不开启组提交
+         * @param groupCommitSize   触发提交的数据大小，单位 byte，默认 1MB
+         */
+        public void setGroupCommit(long groupCommitWindow, int groupCommitSize) {
+            this.groupCommitWindow = groupCommitWindow;
+            this.groupCommitSize = groupCommitSize;
+        }
+
+        /**
+         * 设置数据写入磁盘的策略
+         *
+         * @param durabilityEnum 写入磁盘的策略，默认 {@link DurabilityEnum#NONE}
+         */
+        public void setDurabilityEnum(DurabilityEnum durabilityEnum) {
+            this.durabilityEnum = durabilityEnum;
+        }
+
+        /**
+         * 设置 {@link DurabilityEnum#INTERVAL} 策略写入磁盘的时间间隔
+         *
+         * @param fsyncInterval 时间间隔，单位毫秒，默认 1000
+         */
+        public void setFsyncInterval(long fsyncInterval) {
+            this.fsyncInterval = fsyncInterval;
+        }
+
+        /**
+         * 设置切分后日志文件的压缩方式。日志文件切分后，最后一个写入它的 LoggerConsumer 不再写入时由后台线程压缩，
+         * 压缩完成后删除原文件。只应在切分后的文件不会再被其他进程写入时开启
+         *
+         * @param compressionEnum 压缩方式，默认 {@link CompressionEnum#NONE}
+         */
+        public void setCompressionEnum(CompressionEnum compressionEnum) {
+            this.compressionEnum = compressionEnum;
+        }
+
+        /**
+         * 设置等待写入文件的数据的最大大小。一个线程写文件期间，其他线程的数据先放入缓存，
+         * 缓存已满时按 {@link #setBackpressurePolicy(BackpressurePolicy)} 设置的策略处理
+         *
+         * @param maxBufferSize 最大大小，单位 byte（按字符数计算），默认 0 即不限制
+         */
+        public void setMaxBufferSize(int maxBufferSize) {
+            this.maxBufferSize = maxBufferSize;
+        }
+
+        /**
+         * 设置缓存已满时的处理策略，不支持 {@link BackpressurePolicy#spill(String)}
+         *
+         * @param backpressurePolicy 处理策略，默认等待其他线程写入文件
+         */
+        public void setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+            this.backpressurePolicy = backpressurePolicy;
+        }
+
         /**
          * 设置用户名前缀
          *
@@ -100,23 +251,73 @@ public class LoggerConsumer implements Consumer{
         }
     }
 
+    private static final int MIN_WRITE_SIZE = 64 * 1024;
+    private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+    private static final long BLOCK_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
     private final String fileName;
     private final String lockFileName;
     private final int bufferSize;
     private final int fileSize;
+    private final boolean sharedFile;
+    private final AppenderEnum appenderEnum;
+    private final int mmapRegionSize;
+    private final long groupCommitWindow;
+    private final int groupCommitSize;
+    private final DurabilityEnum durabilityEnum;
+    private final long fsyncInterval;
+    private final ConsumerMetrics metrics = new ConsumerMetrics("LoggerConsumer");
+    private final CompressionEnum compressionEnum;
+    private final int maxBufferSize;
+    private final BackpressurePolicy backpressurePolicy;
+    private final BackpressurePolicy.Buffer<String> buffer = new PendingBuffer();
+    private final LogrotateEnum logrotateEnum;
     private final SimpleDateFormat sdf;
-    private final StringBuffer messageBuffer = new StringBuffer();
+
+    /**
+     * 已编码、等待写入文件的数据。各线程在自己的线程内完成编码后放入无锁队列，由持有 flushLock 的线程统一写入
+     */
+    private final ConcurrentLinkedQueue<String> pendingMessages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingSize = new AtomicInteger();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    /**
+     * 从队列中取出但尚未成功写入文件的数据，只在持有 flushLock 时访问
+     */
+    private final StringBuilder writeBuffer = new StringBuilder();
+    private int writeBufferEvents;
 
     private LoggerFileWriter loggerWriter;
 
+    /**
+     * 日志切分状态，只在持有 flushLock 时访问
+     */
+    private String filePrefix;
+    private int segmentIndex;
+    private long nextRotationTime;
+
     public LoggerConsumer(final Config config) {
         String fileNamePrefix = config.fileNamePrefix == null ? config.logPath +  File.separator  :  config.logPath +  File.separator + config.fileNamePrefix + ".";
         this.fileName = fileNamePrefix + "log.";
         this.fileSize = config.fileSize;
+        this.sharedFile = config.sharedFile && config.appenderEnum == AppenderEnum.STREAM;
         this.lockFileName = config.lockFileName;
         this.bufferSize = config.bufferSize;
+        this.appenderEnum = config.appenderEnum;
+        this.mmapRegionSize = Math.max(1, Math.min(config.mmapRegionSize, 1024)) * 1024 * 1024;
+        this.groupCommitWindow = config.groupCommitWindow;
+        this.groupCommitSize = Math.max(1, config.groupCommitSize);
+        this.durabilityEnum = config.durabilityEnum;
+        this.fsyncInterval = Math.max(1, config.fsyncInterval);
+        this.compressionEnum = config.compressionEnum;
+        this.maxBufferSize = config.maxBufferSize;
+        this.backpressurePolicy = config.backpressurePolicy;
+        if (backpressurePolicy.getStrategy() == BackpressurePolicy.StrategyEnum.SPILL) {
+            throw new IllegalArgumentException("LoggerConsumer does not support the SPILL backpressure policy.");
+        }
 
         final String dataFormat = config.logrotateEnum == LogrotateEnum.HOURLY ? "yyyy-MM-dd-HH" : "yyyy-MM-dd";
+        this.logrotateEnum = config.logrotateEnum;
         this.sdf = new SimpleDateFormat(dataFormat);
     }
 
@@ -133,66 +334,268 @@ public class LoggerConsumer implements Consumer{
 
     @Override
     public void send(Map<String, Object> message) {
+        send(Event.fromMap(message));
+    }
+
+    @Override
+    public void send(Event message) {
+        String line;
+        long start = System.nanoTime();
         try {
-            messageBuffer.append(new Gson().toJson(message));
-            messageBuffer.append("\n");
+            line = EventEncoder.toJson(message);
         } catch (JsonIOException e) {
             throw new RuntimeException("Failed to add data", e);
         }
+        metrics.getSerializeLatency().record(System.nanoTime() - start);
+        metrics.addAccepted(1);
+        if (!backpressurePolicy.admit(buffer, line, message)) {
+            metrics.addDropped(1);
+            return;
+        }
+        if (pendingSize.get() >= bufferSize) {
+            tryDrain();
+        }
+    }
 
-        if (messageBuffer.length() >= bufferSize) {
-            this.flush();
+    /**
+     * 已有线程在写文件时直接返回，不阻塞调用方
+     */
+    private void tryDrain() {
+        while (flushLock.tryLock()) {
+            try {
+                drain();
+            } finally {
+                flushLock.unlock();
+            }
+            // 写文件期间其他线程放入的数据可能已经超过缓冲区容量，而它们获取锁失败后不会再写入
+            if (pendingSize.get() < bufferSize) {
+                break;
+            }
         }
     }
 
     @Override
-    public synchronized void flush() {
-        if (messageBuffer.length() == 0) {
-            return;
+    public void flush() {
+        long start = System.nanoTime();
+        flushLock.lock();
+        try {
+            drain();
+            if (loggerWriter != null) {
+                loggerWriter.sync();
+            }
+        } finally {
+            flushLock.unlock();
+            metrics.getFlushLatency().record(System.nanoTime() - start);
         }
+    }
 
-        String fileName = getFileName();
-        if (loggerWriter != null && !loggerWriter.getFileName().equals(fileName)) {
-            LoggerFileWriter.removeInstance(loggerWriter);
-            loggerWriter = null;
+    /**
+     * 将队列中的数据写入文件，调用方需持有 flushLock。写入失败的数据保留在 writeBuffer 中，下次写入时重试
+     */
+    private void drain() {
+        int writeSize = Math.max(bufferSize, MIN_WRITE_SIZE);
+        String line;
+        while (true) {
+            // 先写入已满的 writeBuffer 再从队列取数据，写入一直失败时 writeBuffer 不会无限增长
+            if (writeBuffer.length() >= writeSize) {
+                writeToFile();
+            }
+            if ((line = pendingMessages.poll()) == null) {
+                break;
+            }
+            pendingSize.addAndGet(-(line.length() + 1));
+            writeBuffer.append(line).append('\n');
+            writeBufferEvents++;
         }
+        if (writeBuffer.length() > 0) {
+            writeToFile();
+        }
+    }
 
-        if (loggerWriter == null) {
-            try {
-                loggerWriter = LoggerFileWriter.getInstance(fileName, lockFileName);
-            } catch (FileNotFoundException e) {
-                throw new RuntimeException(e);
+    private void writeToFile() {
+        LoggerFileWriter writer = currentWriter();
+        long start = System.nanoTime();
+        if (writer.write(writeBuffer)) {
+            metrics.getFileWriteLatency().record(System.nanoTime() - start);
+            metrics.addSent(writeBufferEvents);
+            metrics.addBuffered(-writeBufferEvents, -writeBuffer.length());
+            writeBufferEvents = 0;
+            writeBuffer.setLength(0);
+            if (writeBuffer.capacity() > MAX_RETAINED_BUFFER) {
+                writeBuffer.trimToSize();
             }
+            // 数据已经写入，写入磁盘失败时不能再保留在 writeBuffer 中，否则会重复写入
+            writer.forceAfterWrite();
         }
+    }
 
-        if (loggerWriter.write(messageBuffer)) {
-            messageBuffer.setLength(0);
+    /**
+     * 根据内存中的切分状态返回当前应写入的文件，调用方需持有 flushLock。
+     * 只有到达切分时间时才重新格式化日期；文件大小使用 LoggerFileWriter 中记录的已写入长度，不访问文件系统，
+     * 多个进程写入同一个文件时读取已打开文件的当前长度
+     */
+    private LoggerFileWriter currentWriter() {
+        long now = System.currentTimeMillis();
+        if (now >= nextRotationTime) {
+            rotate(now);
         }
-    }
 
-    private String getFileName() {
-        String resultPrefix = fileName + sdf.format(new Date()) + "_";
-        int count = 0;
-        String result = resultPrefix + count;
-        if (fileSize > 0) {
-            File target = new File(result);
-            while (target.exists()) {
-                if ((target.length() / (1024 * 1024)) < fileSize) {
-                    break;
+        while (true) {
+            String currentFileName = filePrefix + segmentIndex;
+            if (loggerWriter != null && !loggerWriter.getFileName().equals(currentFileName)) {
+                LoggerFileWriter previous = loggerWriter;
+                loggerWriter = null;
+                try {
+                    // 其他实例仍在使用旧文件时不会关闭它，需要等待本实例提交的数据写入
+                    previous.sync();
+                } finally {
+                    if (LoggerFileWriter.removeInstance(previous, this) && compressionEnum == CompressionEnum.GZIP) {
+                        SegmentCompressor.submit(new File(previous.getFileName()), durabilityEnum != DurabilityEnum.NONE,
+                                metrics.getCompressLatency());
+                    }
+                }
+            }
+
+            if (loggerWriter == null) {
+                try {
+                    loggerWriter = LoggerFileWriter.getInstance(currentFileName, this);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
                 }
-                result = resultPrefix + (++count);
-                target = new File(result);
             }
+
+            if (fileSize <= 0 || (loggerWriter.size(sharedFile) / (1024 * 1024)) < fileSize) {
+                return loggerWriter;
+            }
+            segmentIndex++;
         }
-        return result;
+    }
+
+    /**
+     * 进入新的切分周期，计算文件名前缀和下一次切分的时间
+     */
+    private void rotate(long now) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        filePrefix = fileName + sdf.format(calendar.getTime()) + "_";
+
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (logrotateEnum == LogrotateEnum.HOURLY) {
+            calendar.add(Calendar.HOUR_OF_DAY, 1);
+        } else {
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        boolean firstRotation = nextRotationTime == 0;
+        nextRotationTime = calendar.getTimeInMillis();
+
+        segmentIndex = 0;
+        if (firstRotation && fileSize > 0) {
+            // 启动时跳过上次运行已经写满的文件，之后的切分只依赖内存中的状态
+            File target = new File(filePrefix + segmentIndex);
+            while ((target.exists() && (target.length() / (1024 * 1024)) >= fileSize)
+                    || new File(target.getPath() + SegmentCompressor.SUFFIX).exists()) {
+                target = new File(filePrefix + (++segmentIndex));
+            }
+        }
+    }
+
+    /**
+     * @return 本实例写入的文件每次写入磁盘的耗时，包括其他共用同一文件的实例触发的写入
+     */
+    public LatencyRecorder getFsyncLatency() {
+        return metrics.getFsyncLatency();
     }
 
     @Override
-    public synchronized void close() {
-        this.flush();
-        if (loggerWriter != null) {
-            LoggerFileWriter.removeInstance(loggerWriter);
-            loggerWriter = null;
+    public ConsumerMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        flushLock.lock();
+        try {
+            drain();
+            if (loggerWriter != null) {
+                try {
+                    loggerWriter.sync();
+                } finally {
+                    LoggerFileWriter.removeInstance(loggerWriter, this);
+                    loggerWriter = null;
+                }
+            }
+        } finally {
+            flushLock.unlock();
+            metrics.unregisterMBean();
+        }
+    }
+
+    /**
+     * 等待写入文件的数据，由 {@link BackpressurePolicy} 决定超过 maxBufferSize 时的处理方式
+     */
+    private class PendingBuffer implements BackpressurePolicy.Buffer<String> {
+
+        @Override
+        public boolean offer(String line) {
+            int size = line.length() + 1;
+            int current;
+            do {
+                current = pendingSize.get();
+                // 缓存为空时总是放入，避免超过 maxBufferSize 的单条数据永远无法写入
+                if (maxBufferSize > 0 && current > 0 && current + size > maxBufferSize) {
+                    return false;
+                }
+            } while (!pendingSize.compareAndSet(current, current + size));
+            pendingMessages.offer(line);
+            metrics.addBuffered(1, size);
+            return true;
+        }
+
+        /**
+         * 获取 flushLock 后由当前线程写入文件，腾出空间
+         */
+        @Override
+        public boolean offer(String line, long timeoutNanos) throws InterruptedException {
+            long start = System.nanoTime();
+            while (!offer(line)) {
+                long wait = timeoutNanos - (System.nanoTime() - start);
+                if (wait <= 0) {
+                    return false;
+                }
+                if (flushLock.tryLock(Math.min(wait, BLOCK_WAIT_NANOS), TimeUnit.NANOSECONDS)) {
+                    try {
+                        drain();
+                    } finally {
+                        flushLock.unlock();
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean dropOldest() {
+            String line = pendingMessages.poll();
+            if (line == null) {
+                return false;
+            }
+            pendingSize.addAndGet(-(line.length() + 1));
+            metrics.addBuffered(-1, -(line.length() + 1));
+            metrics.addDropped(1);
+            return true;
+        }
+
+        @Override
+        public boolean isNearlyFull() {
+            return maxBufferSize > 0 && pendingSize.get() >= maxBufferSize * BackpressurePolicy.SAMPLE_THRESHOLD;
+        }
+
+        @Override
+        public boolean spill(Event event) {
+            return false;
         }
     }
 
@@ -201,46 +604,139 @@ public class LoggerConsumer implements Consumer{
         private final String fileName;
         private final FileOutputStream outputStream;
         private final FileOutputStream lockStream;
+        private final MappedFileAppender mappedAppender;
+        private final GroupCommitter groupCommitter;
+        private final DurabilityEnum durabilityEnum;
+        private final Thread fsyncThread;
+        private final List<LatencyRecorder> fsyncLatencies = new CopyOnWriteArrayList<>();
         private int refCount;
 
+        /**
+         * STREAM 方式下本 JVM 已写入文件的长度，打开文件时取文件的实际长度
+         */
+        private volatile long size;
+
+        /**
+         * 写入次数和已写入磁盘的写入次数，同时调用 flush 的线程根据它们判断是否需要再次写入磁盘
+         */
+        private volatile long writeSeq;
+        private long forcedSeq;
+        private final Object forceLock = new Object();
+        private volatile boolean closed;
+
         private static final Map<String, LoggerFileWriter> LOGGER_FILE_WRITER_MAP = new HashMap<>();
 
-        static LoggerFileWriter getInstance(final String fileName, final String lockFileName) throws FileNotFoundException {
+        /**
+         * 获取文件对应的写入对象，文件第一次打开时使用 consumer 的配置
+         */
+        static LoggerFileWriter getInstance(final String fileName, final LoggerConsumer consumer) throws IOException {
             synchronized (LOGGER_FILE_WRITER_MAP) {
                 if (!LOGGER_FILE_WRITER_MAP.containsKey(fileName)) {
-                    LOGGER_FILE_WRITER_MAP.put(fileName, new LoggerFileWriter(fileName, lockFileName));
+                    LOGGER_FILE_WRITER_MAP.put(fileName, new LoggerFileWriter(fileName, consumer));
                 }
                 LoggerFileWriter writer = LOGGER_FILE_WRITER_MAP.get(fileName);
                 writer.refCount++;
+                writer.fsyncLatencies.add(consumer.metrics.getFsyncLatency());
                 return writer;
             }
         }
 
-        static void removeInstance(final LoggerFileWriter writer) {
+        /**
+         * @return 文件是否已经关闭，即没有其他实例继续写入
+         */
+        static boolean removeInstance(final LoggerFileWriter writer, final LoggerConsumer consumer) {
             synchronized (LOGGER_FILE_WRITER_MAP) {
                 writer.refCount--;
+                writer.fsyncLatencies.remove(consumer.metrics.getFsyncLatency());
                 if (writer.refCount == 0) {
-                    writer.close();
                     LOGGER_FILE_WRITER_MAP.remove(writer.fileName);
+                    writer.close();
+                    return true;
                 }
+                return false;
             }
         }
 
-        private LoggerFileWriter(final String fileName, final String lockFileName) throws FileNotFoundException {
-            this.outputStream = new FileOutputStream(fileName, true);
-            if (lockFileName != null) {
-                this.lockStream = new FileOutputStream(lockFileName, true);
+        private LoggerFileWriter(final String fileName, final LoggerConsumer consumer) throws IOException {
+            if (consumer.appenderEnum == AppenderEnum.MMAP) {
+                this.mappedAppender = new MappedFileAppender(new File(fileName), consumer.mmapRegionSize);
+                this.outputStream = null;
+                this.lockStream = null;
             } else {
-                this.lockStream = this.outputStream;
+                this.mappedAppender = null;
+                this.outputStream = new FileOutputStream(fileName, true);
+                this.size = outputStream.getChannel().size();
+                if (consumer.lockFileName != null) {
+                    this.lockStream = new FileOutputStream(consumer.lockFileName, true);
+                } else {
+                    this.lockStream = this.outputStream;
+                }
             }
 
             this.fileName = fileName;
             this.refCount = 0;
+            this.durabilityEnum = consumer.durabilityEnum;
+
+            if (consumer.groupCommitWindow > 0) {
+                final boolean forceOnCommit = durabilityEnum == DurabilityEnum.GROUP
+                        || durabilityEnum == DurabilityEnum.EVERY_FLUSH;
+                this.groupCommitter = new GroupCommitter("ZallDataAnalytics-LoggerConsumer-GroupCommit-" + fileName,
+                        new GroupCommitter.Sink() {
+                            @Override
+                            public void commit(List<String> chunks) throws IOException {
+                                writeChunks(chunks);
+                                if (forceOnCommit) {
+                                    forceQuietly();
+                                }
+                            }
+                        }, consumer.groupCommitWindow, consumer.groupCommitSize);
+            } else {
+                this.groupCommitter = null;
+            }
+
+            if (durabilityEnum == DurabilityEnum.INTERVAL) {
+                this.fsyncThread = new Thread(new FsyncTask(consumer.fsyncInterval),
+                        "ZallDataAnalytics-LoggerConsumer-Fsync-" + fileName);
+                this.fsyncThread.setDaemon(true);
+                this.fsyncThread.start();
+            } else {
+                this.fsyncThread = null;
+            }
         }
 
         private void close() {
             try {
-                outputStream.close();
+                if (groupCommitter != null) {
+                    groupCommitter.close();
+                }
+            } finally {
+                closeFile();
+            }
+        }
+
+        private void closeFile() {
+            if (fsyncThread != null) {
+                synchronized (forceLock) {
+                    closed = true;
+                    forceLock.notifyAll();
+                }
+                try {
+                    fsyncThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (durabilityEnum != DurabilityEnum.NONE) {
+                forceQuietly();
+            }
+            try {
+                if (mappedAppender != null) {
+                    synchronized (this) {
+                        mappedAppender.close();
+                    }
+                } else {
+                    outputStream.close();
+                }
             } catch (Exception e) {
                 throw new RuntimeException("fail to close tga outputStream.", e);
             }
@@ -250,26 +746,167 @@ public class LoggerConsumer implements Consumer{
             return this.fileName;
         }
 
-        boolean write(final StringBuffer sb) {
+        /**
+         * @param shared 是否读取已打开文件的当前长度，包括其他进程追加写入的数据
+         * @return 文件中已写入的数据长度
+         */
+        long size(boolean shared) {
+            if (mappedAppender != null) {
+                synchronized (this) {
+                    return mappedAppender.size();
+                }
+            }
+            if (!shared) {
+                return size;
+            }
+            try {
+                return Math.max(size, outputStream.getChannel().size());
+            } catch (IOException e) {
+                return size;
+            }
+        }
+
+        /**
+         * 写入数据，开启组提交时只放入提交队列
+         */
+        boolean write(final CharSequence sb) {
+            if (groupCommitter != null) {
+                groupCommitter.submit(sb.toString());
+                return true;
+            }
+            try {
+                writeChunks(Collections.singletonList(sb));
+            } catch (Exception e) {
+                throw new RuntimeException("failed to write tga file.", e);
+            }
+            return true;
+        }
+
+        /**
+         * {@link DurabilityEnum#EVERY_FLUSH} 策略下在 {@link #write(CharSequence)} 成功后写入磁盘，组提交由提交线程负责
+         */
+        void forceAfterWrite() {
+            if (groupCommitter == null && durabilityEnum == DurabilityEnum.EVERY_FLUSH) {
+                force(writeSeq);
+            }
+        }
+
+        /**
+         * 等待之前放入提交队列的数据写入文件，{@link DurabilityEnum#GROUP} 策略下同时写入磁盘
+         */
+        void sync() {
+            if (groupCommitter != null) {
+                groupCommitter.sync();
+            } else if (durabilityEnum == DurabilityEnum.GROUP) {
+                force(writeSeq);
+            }
+        }
+
+        private void writeChunks(final List<? extends CharSequence> chunks) throws IOException {
+            if (mappedAppender != null) {
+                synchronized (this) {
+                    for (CharSequence chunk : chunks) {
+                        mappedAppender.append(chunk);
+                    }
+                    writeSeq++;
+                }
+                return;
+            }
+
+            byte[] bytes;
+            if (chunks.size() == 1) {
+                bytes = chunks.get(0).toString().getBytes(StandardCharsets.UTF_8);
+            } else {
+                StringBuilder merged = new StringBuilder();
+                for (CharSequence chunk : chunks) {
+                    merged.append(chunk);
+                }
+                bytes = merged.toString().getBytes(StandardCharsets.UTF_8);
+            }
             synchronized (this.lockStream) {
-                FileLock lock = null;
+                // 多段数据合并后一次写入，只获取一次文件锁
+                FileLock lock = lockStream.getChannel().lock(0, Long.MAX_VALUE, false);
                 try {
-                    final FileChannel channel = lockStream.getChannel();
-                    lock = channel.lock(0, Long.MAX_VALUE, false);
-                    outputStream.write(sb.toString().getBytes(StandardCharsets.UTF_8));
-                } catch (Exception e) {
-                    throw new RuntimeException("failed to write tga file.", e);
+                    outputStream.write(bytes);
+                    size += bytes.length;
+                    writeSeq++;
                 } finally {
-                    if (lock != null) {
+                    try {
+                        lock.release();
+                    } catch (IOException e) {
+                        throw new RuntimeException("failed to release tga file lock.", e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 将第 target 次及之前的写入写入磁盘。等待期间其他线程已完成的写入磁盘操作如果已经包含这些写入，直接返回
+         */
+        private void force(final long target) {
+            synchronized (forceLock) {
+                if (forcedSeq >= target) {
+                    return;
+                }
+                long current = writeSeq;
+                long start = System.nanoTime();
+                try {
+                    if (mappedAppender != null) {
+                        synchronized (this) {
+                            mappedAppender.force();
+                        }
+                    } else {
+                        outputStream.getChannel().force(false);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException("failed to sync tga file.", e);
+                }
+                long elapsed = System.nanoTime() - start;
+                for (LatencyRecorder recorder : fsyncLatencies) {
+                    recorder.record(elapsed);
+                }
+                forcedSeq = current;
+            }
+        }
+
+        private void forceQuietly() {
+            try {
+                force(writeSeq);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * {@link DurabilityEnum#INTERVAL} 策略下定期写入磁盘
+         */
+        private class FsyncTask implements Runnable {
+
+            private final long interval;
+
+            FsyncTask(long interval) {
+                this.interval = interval;
+            }
+
+            @Override
+            public void run() {
+                while (true) {
+                    synchronized (forceLock) {
+                        if (closed) {
+                            return;
+                        }
                         try {
-                            lock.release();
-                        } catch (IOException e) {
-                            throw new RuntimeException("failed to release tga file lock.", e);
+                            forceLock.wait(interval);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        if (closed) {
+                            return;
                         }
                     }
+                    forceQuietly();
                 }
             }
-            return true;
         }
     }
 }
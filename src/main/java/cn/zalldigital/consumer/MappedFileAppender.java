@@ -0,0 +1,215 @@
+package cn.zalldigital.consumer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 基于内存映射的日志文件追加写入
+ * <p>
+ * 文件按固定大小的区域预先分配并映射，数据以 UTF-8 编码后直接复制到映射区域，写满后映射下一个区域，写入过程不需要系统调用。
+ * 关闭时将文件截断到实际数据长度；进程异常退出时文件末尾会留下未使用的 0 字节，重新打开时从文件末尾向前跳过这些字节
+ * 找到实际数据的结尾（JSON 数据中不会出现 0 字节）。
+ * <p>
+ * 映射区域无法与其他进程协调追加位置，同一个文件只能由一个进程写入。实时读取正在写入文件的外部采集工具会读到末尾的 0 字节，
+ * 因此不支持与外部采集工具同时使用，见 {@link LoggerConsumer.AppenderEnum#MMAP}。
+ */
+final class MappedFileAppender implements Closeable {
+
+    private static final int SCAN_CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNK_CHARS = 8192;
+
+    private static final MethodHandle UNMAP = findUnmap();
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int regionSize;
+    private final char[] chars = new char[CHUNK_CHARS];
+    private final byte[] bytes = new byte[CHUNK_CHARS * 3];
+    private MappedByteBuffer region;
+    private long regionStart;
+
+    MappedFileAppender(File target, int regionSize) throws IOException {
+        this.file = new RandomAccessFile(target, "rw");
+        this.channel = file.getChannel();
+        this.regionSize = regionSize;
+        try {
+            map(findLogicalEnd());
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return 已写入的数据长度
+     */
+    long size() {
+        return regionStart + region.position();
+    }
+
+    void append(CharSequence data) throws IOException {
+        int length = data.length();
+        int offset = 0;
+        while (offset < length) {
+            int end = Math.min(offset + CHUNK_CHARS, length);
+            // 代理对不能被拆分到两个分块中
+            if (end < length && Character.isHighSurrogate(data.charAt(end - 1))) {
+                end--;
+            }
+            if (data instanceof StringBuilder) {
+                ((StringBuilder) data).getChars(offset, end, chars, 0);
+            } else {
+                for (int i = offset; i < end; i++) {
+                    chars[i - offset] = data.charAt(i);
+                }
+            }
+            put(bytes, encode(chars, end - offset, bytes));
+            offset = end;
+        }
+    }
+
+    /**
+     * 与 {@link String#getBytes(java.nio.charset.Charset)} 相同，无法编码的字符替换为 '?'
+     */
+    private static int encode(char[] src, int length, byte[] dst) {
+        int j = 0;
+        for (int i = 0; i < length; i++) {
+            char c = src[i];
+            if (c < 0x80) {
+                dst[j++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[j++] = (byte) (0xc0 | (c >> 6));
+                dst[j++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(src[i + 1])) {
+                    int codePoint = Character.toCodePoint(c, src[++i]);
+                    dst[j++] = (byte) (0xf0 | (codePoint >> 18));
+                    dst[j++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    dst[j++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    dst[j++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else {
+                    dst[j++] = '?';
+                }
+            } else {
+                dst[j++] = (byte) (0xe0 | (c >> 12));
+                dst[j++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                dst[j++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return j;
+    }
+
+    private void put(byte[] src, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            if (!region.hasRemaining()) {
+                map(size());
+            }
+            int n = Math.min(region.remaining(), length - offset);
+            region.put(src, offset, n);
+            offset += n;
+        }
+    }
+
+    /**
+     * 将映射区域中的数据写入磁盘，之前已经解除映射的区域中的数据通过文件通道写入
+     */
+    void force() throws IOException {
+        region.force();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            long size = size();
+            unmap(region);
+            region = null;
+            channel.truncate(size);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void map(long position) throws IOException {
+        MappedByteBuffer previous = region;
+        region = channel.map(FileChannel.MapMode.READ_WRITE, position, regionSize);
+        regionStart = position;
+        if (previous != null) {
+            unmap(previous);
+        }
+    }
+
+    /**
+     * 从文件末尾向前跳过预分配但未写入的 0 字节
+     */
+    private long findLogicalEnd() throws IOException {
+        long end = channel.size();
+        ByteBuffer chunk = ByteBuffer.allocate(SCAN_CHUNK_SIZE);
+        while (end > 0) {
+            long start = Math.max(0, end - SCAN_CHUNK_SIZE);
+            chunk.clear();
+            chunk.limit((int) (end - start));
+            while (chunk.hasRemaining()) {
+                if (channel.read(chunk, start + chunk.position()) < 0) {
+                    break;
+                }
+            }
+            for (int i = chunk.position() - 1; i >= 0; i--) {
+                if (chunk.get(i) != 0) {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    /**
+     * 立即释放映射区域，否则要等到 GC 时才会释放；无法释放时交给 GC 处理
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (UNMAP == null || buffer == null) {
+            return;
+        }
+        try {
+            UNMAP.invokeExact((ByteBuffer) buffer);
+        } catch (Throwable e) {
+            // 交给 GC 释放
+        }
+    }
+
+    private static MethodHandle findUnmap() {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            // Java 9 及以上版本
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return lookup.unreflect(invokeCleaner).bindTo(theUnsafe.get(null));
+        } catch (Throwable e) {
+            // Java 8
+        }
+        try {
+            Class<?> directBuffer = Class.forName("sun.nio.ch.DirectBuffer");
+            Method cleaner = directBuffer.getMethod("cleaner");
+            Method clean = cleaner.getReturnType().getMethod("clean");
+            MethodHandle getCleaner = lookup.unreflect(cleaner).asType(MethodType.methodType(Object.class, ByteBuffer.class));
+            MethodHandle doClean = lookup.unreflect(clean).asType(MethodType.methodType(void.class, Object.class));
+            return MethodHandles.filterReturnValue(getCleaner, doClean);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package cn.zalldigital.consumer;
+
+import cn.zalldigital.Event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按项目分发数据的 Consumer
+ * <p>
+ * 根据数据的 project 字段（即属性中的 $project）将数据交给该项目对应的 Consumer，每个项目使用单独的队列、批次大小、
+ * 数据接收地址和运行指标，访问量大的项目不会占满其他项目的缓存或阻塞其他项目的发送，数据接收端收到的每个批次只包含一个项目的数据。
+ * <p>
+ * 项目对应的 Consumer 可以通过 {@link Config#addProject(String, Consumer)} 预先指定，也可以通过
+ * {@link Config#setConsumerFactory(ConsumerFactory)} 在第一次收到该项目的数据时创建。
+ * 没有 project 字段或找不到对应 Consumer 的数据交给 {@link Config#setDefaultConsumer(Consumer)} 指定的 Consumer，
+ * 未指定时丢弃。
+ */
+public class ProjectRoutingConsumer implements Consumer {
+
+    /**
+     * 为新出现的项目创建 Consumer
+     */
+    public interface ConsumerFactory {
+
+        /**
+         * @param project 项目名称
+         * @return 该项目使用的 Consumer，返回 null 时该项目的数据交给默认 Consumer
+         */
+        Consumer create(String project);
+    }
+
+    /**
+     * ProjectRoutingConsumer 的配置信息
+     */
+    public static class Config {
+        Map<String, Consumer> projectConsumers = new LinkedHashMap<>();
+        ConsumerFactory consumerFactory;
+        Consumer defaultConsumer;
+
+        /**
+         * 指定项目使用的 Consumer，关闭 ProjectRoutingConsumer 时一并关闭
+         *
+         * @param project  项目名称
+         * @param consumer 该项目使用的 Consumer
+         */
+        public void addProject(String project, Consumer consumer) {
+            if (project == null || consumer == null) {
+                throw new IllegalArgumentException("The project and consumer must not be null.");
+            }
+            this.projectConsumers.put(project, consumer);
+        }
+
+        /**
+         * 设置未通过 addProject 指定的项目的 Consumer 创建方式，每个项目只创建一次
+         *
+         * @param consumerFactory 创建方式，默认不创建
+         */
+        public void setConsumerFactory(ConsumerFactory consumerFactory) {
+            this.consumerFactory = consumerFactory;
+        }
+
+        /**
+         * 设置没有 project 字段或找不到对应 Consumer 的数据使用的 Consumer
+         *
+         * @param defaultConsumer 默认 Consumer，默认为 null，即丢弃这些数据
+         */
+        public void setDefaultConsumer(Consumer defaultConsumer) {
+            this.defaultConsumer = defaultConsumer;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Consumer> projectConsumers;
+    private final ConsumerFactory consumerFactory;
+    private final Consumer defaultConsumer;
+    private final ConsumerMetrics metrics = new ConsumerMetrics("ProjectRoutingConsumer");
+
+    /**
+     * 工厂返回 null 的项目，避免每条数据都重复调用工厂
+     */
+    private final Map<String, Boolean> unroutedProjects = new ConcurrentHashMap<>();
+
+    public ProjectRoutingConsumer(final Config config) {
+        this.projectConsumers = new ConcurrentHashMap<>(config.projectConsumers);
+        this.consumerFactory = config.consumerFactory;
+        this.defaultConsumer = config.defaultConsumer;
+    }
+
+    @Override
+    public void send(Map<String, Object> message) {
+        send(Event.fromMap(message));
+    }
+
+    @Override
+    public void send(Event message) {
+        metrics.addAccepted(1);
+        Consumer consumer = route(message.getProject());
+        if (consumer == null) {
+            metrics.addDropped(1);
+            return;
+        }
+        consumer.send(message);
+    }
+
+    /**
+     * 依次调用所有项目的 flush，某个项目失败时仍然继续其他项目，最后抛出第一个异常
+     */
+    @Override
+    public void flush() {
+        long start = System.nanoTime();
+        RuntimeException error = null;
+        for (Consumer consumer : consumers()) {
+            try {
+                consumer.flush();
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        metrics.getFlushLatency().record(System.nanoTime() - start);
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 关闭所有项目的 Consumer 和默认 Consumer，某个项目失败时仍然继续关闭其他项目，最后抛出第一个异常
+     */
+    @Override
+    public void close() {
+        RuntimeException error = null;
+        for (Consumer consumer : consumers()) {
+            try {
+                consumer.close();
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        metrics.unregisterMBean();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 记录接收的数据条数、因找不到项目对应的 Consumer 而丢弃的数据条数和 flush 耗时，各个项目的发送指标见 {@link #getProjectMetrics()}
+     */
+    @Override
+    public ConsumerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return 项目名称到该项目 Consumer 运行指标的映射，不包括不记录指标的 Consumer
+     */
+    public Map<String, ConsumerMetrics> getProjectMetrics() {
+        Map<String, ConsumerMetrics> result = new HashMap<>();
+        for (Map.Entry<String, Consumer> entry : projectConsumers.entrySet()) {
+            ConsumerMetrics projectMetrics = entry.getValue().getMetrics();
+            if (projectMetrics != null) {
+                result.put(entry.getKey(), projectMetrics);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @param project 项目名称
+     * @return 该项目使用的 Consumer，尚未创建时返回 null
+     */
+    public Consumer getConsumer(String project) {
+        return projectConsumers.get(project);
+    }
+
+    private Consumer route(String project) {
+        if (project == null) {
+            return defaultConsumer;
+        }
+        Consumer consumer = projectConsumers.get(project);
+        if (consumer != null) {
+            return consumer;
+        }
+        if (consumerFactory == null || unroutedProjects.containsKey(project)) {
+            return defaultConsumer;
+        }
+        synchronized (projectConsumers) {
+            consumer = projectConsumers.get(project);
+            if (consumer == null && !unroutedProjects.containsKey(project)) {
+                consumer = consumerFactory.create(project);
+                if (consumer != null) {
+                    projectConsumers.put(project, consumer);
+                } else {
+                    unroutedProjects.put(project, Boolean.TRUE);
+                }
+            }
+        }
+        return consumer != null ? consumer : defaultConsumer;
+    }
+
+    private List<Consumer> consumers() {
+        List<Consumer> result;
+        synchronized (projectConsumers) {
+            result = new ArrayList<>(projectConsumers.values());
+        }
+        if (defaultConsumer != null && !result.contains(defaultConsumer)) {
+            result.add(defaultConsumer);
+        }
+        return result;
+    }
+}
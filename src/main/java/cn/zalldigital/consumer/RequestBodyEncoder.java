@@ -0,0 +1,320 @@
+package cn.zalldigital.consumer;
+
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 将一批数据编码为 {@code gzip=1&data_list=...} 形式的表单请求体
+ * <p>
+ * JSON 直接写入 UTF-8 编码、gzip 压缩、Base64 及表单转义的流水线，最终落到可复用的缓冲区中，中间不产生完整的数据副本。
+ * 编码器（包括其中的 {@link Deflater} 和缓冲区）通过对象池复用，使用完毕后必须调用 {@link #release()} 归还。
+ * 输出结果与 {@code UrlEncodedFormEntity} + {@code Base64.encodeBase64} + {@code GZIPOutputStream} 的组合逐字节一致。
+ */
+final class RequestBodyEncoder {
+
+    /**
+     * 将请求数据以 JSON 形式写入 {@link Writer}
+     */
+    interface BodyWriter {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    private static final int MAX_POOLED = 32;
+    private static final int MAX_RETAINED_BUFFER = 4 * 1024 * 1024;
+    private static final ContentType CONTENT_TYPE = ContentType.create(URLEncodedUtils.CONTENT_TYPE, (String) null);
+    private static final byte[] GZIP_PREFIX = "gzip=1&data_list=".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PLAIN_PREFIX = "gzip=0&data_list=".getBytes(StandardCharsets.US_ASCII);
+    private static final Queue<RequestBodyEncoder> POOL = new ConcurrentLinkedQueue<>();
+
+    private final BodyBuffer body = new BodyBuffer();
+    private final Base64FormStage base64Stage = new Base64FormStage(body);
+    private final GzipStage gzipStage = new GzipStage(base64Stage);
+    private final Writer gzipWriter = new OutputStreamWriter(gzipStage, StandardCharsets.UTF_8);
+    private final Writer plainWriter = new OutputStreamWriter(base64Stage, StandardCharsets.UTF_8);
+
+    /**
+     * 编码过程中出错时 Writer 中可能残留未输出的数据，此时编码器不再放回对象池
+     */
+    private boolean broken;
+
+    private RequestBodyEncoder() {
+    }
+
+    static RequestBodyEncoder acquire() {
+        RequestBodyEncoder encoder = POOL.poll();
+        return encoder != null ? encoder : new RequestBodyEncoder();
+    }
+
+    /**
+     * 归还编码器，归还后此前 {@link #encode} 返回的请求体不能再使用
+     */
+    void release() {
+        if (broken || body.buf.length > MAX_RETAINED_BUFFER || POOL.size() >= MAX_POOLED) {
+            gzipStage.end();
+            return;
+        }
+        POOL.offer(this);
+    }
+
+    /**
+     * @return 最近一次 {@link #encode} 中压缩所用的时间，单位纳秒
+     */
+    long getCompressNanos() {
+        return gzipStage.compressNanos;
+    }
+
+    /**
+     * 编码请求体，返回的 entity 直接引用编码器内部的缓冲区
+     */
+    ByteArrayEntity encode(BodyWriter data, boolean gzip) throws IOException {
+        body.reset();
+        base64Stage.reset();
+        gzipStage.compressNanos = 0;
+        broken = true;
+        if (gzip) {
+            body.write(GZIP_PREFIX);
+            gzipStage.start();
+            data.writeTo(gzipWriter);
+            gzipWriter.flush();
+            gzipStage.finish();
+        } else {
+            body.write(PLAIN_PREFIX);
+            data.writeTo(plainWriter);
+            plainWriter.flush();
+        }
+        base64Stage.finish();
+        broken = false;
+        return new ByteArrayEntity(body.buf, 0, body.count, CONTENT_TYPE);
+    }
+
+    /**
+     * 可复用的字节缓冲区
+     */
+    private static final class BodyBuffer extends OutputStream {
+        private byte[] buf = new byte[8192];
+        private int count;
+
+        void reset() {
+            count = 0;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (count + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + extra));
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(1);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Base64 编码并对结果中的 '+' '/' '=' 做表单转义
+     */
+    private static final class Base64FormStage extends OutputStream {
+        private static final byte[] ALPHABET =
+                "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+        private final BodyBuffer out;
+        private int pending;
+        private int pendingCount;
+
+        Base64FormStage(BodyBuffer out) {
+            this.out = out;
+        }
+
+        void reset() {
+            pending = 0;
+            pendingCount = 0;
+        }
+
+        @Override
+        public void write(int b) {
+            pending = (pending << 8) | (b & 0xff);
+            if (++pendingCount == 3) {
+                out.ensureCapacity(12);
+                emit(pending >>> 18);
+                emit(pending >>> 12);
+                emit(pending >>> 6);
+                emit(pending);
+                reset();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            int end = off + len;
+            while (off < end && pendingCount != 0) {
+                write(b[off++]);
+            }
+            out.ensureCapacity((end - off) / 3 * 12);
+            while (end - off >= 3) {
+                int bits = ((b[off] & 0xff) << 16) | ((b[off + 1] & 0xff) << 8) | (b[off + 2] & 0xff);
+                emit(bits >>> 18);
+                emit(bits >>> 12);
+                emit(bits >>> 6);
+                emit(bits);
+                off += 3;
+            }
+            while (off < end) {
+                write(b[off++]);
+            }
+        }
+
+        @Override
+        public void flush() {
+            // 只在 finish 时输出尾部数据
+        }
+
+        void finish() {
+            out.ensureCapacity(12);
+            if (pendingCount == 1) {
+                int bits = pending << 16;
+                emit(bits >>> 18);
+                emit(bits >>> 12);
+                emitPadding();
+                emitPadding();
+            } else if (pendingCount == 2) {
+                int bits = pending << 8;
+                emit(bits >>> 18);
+                emit(bits >>> 12);
+                emit(bits >>> 6);
+                emitPadding();
+            }
+            reset();
+        }
+
+        private void emit(int sextet) {
+            byte c = ALPHABET[sextet & 0x3f];
+            byte[] buf = out.buf;
+            if (c == '+') {
+                buf[out.count++] = '%';
+                buf[out.count++] = '2';
+                buf[out.count++] = 'B';
+            } else if (c == '/') {
+                buf[out.count++] = '%';
+                buf[out.count++] = '2';
+                buf[out.count++] = 'F';
+            } else {
+                buf[out.count++] = c;
+            }
+        }
+
+        private void emitPadding() {
+            out.buf[out.count++] = '%';
+            out.buf[out.count++] = '3';
+            out.buf[out.count++] = 'D';
+        }
+    }
+
+    /**
+     * 使用复用的 {@link Deflater} 输出 gzip 格式数据，格式与 {@link java.util.zip.GZIPOutputStream} 相同
+     */
+    private static final class GzipStage extends OutputStream {
+        private static final byte[] HEADER = gzipHeader();
+
+        private final OutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] buf = new byte[8192];
+        private long compressNanos;
+
+        GzipStage(OutputStream out) {
+            this.out = out;
+        }
+
+        void start() throws IOException {
+            deflater.reset();
+            crc.reset();
+            out.write(HEADER);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            crc.update(b, off, len);
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+        }
+
+        @Override
+        public void flush() {
+            // 只在 finish 时输出剩余的压缩数据
+        }
+
+        void finish() throws IOException {
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate();
+            }
+            writeInt((int) crc.getValue());
+            writeInt((int) deflater.getBytesRead());
+        }
+
+        void end() {
+            deflater.end();
+        }
+
+        private void deflate() throws IOException {
+            long start = System.nanoTime();
+            int len = deflater.deflate(buf, 0, buf.length);
+            compressNanos += System.nanoTime() - start;
+            if (len > 0) {
+                out.write(buf, 0, len);
+            }
+        }
+
+        /**
+         * 不同 JDK 版本的 gzip 头中 OS 字段不同，直接取当前 JDK 的 GZIPOutputStream 输出的头部
+         */
+        private static byte[] gzipHeader() {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            try {
+                new GZIPOutputStream(os).close();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return Arrays.copyOf(os.toByteArray(), 10);
+        }
+
+        private void writeInt(int i) throws IOException {
+            out.write(i & 0xff);
+            out.write((i >> 8) & 0xff);
+            out.write((i >> 16) & 0xff);
+            out.write((i >> 24) & 0xff);
+        }
+    }
+}
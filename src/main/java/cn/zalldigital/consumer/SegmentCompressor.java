@@ -0,0 +1,112 @@
+package cn.zalldigital.consumer;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * LoggerConsumer 切分后的日志文件压缩
+ * <p>
+ * 由一个低优先级的后台线程依次将文件压缩为 &lt;文件名&gt;.gz：先写入 &lt;文件名&gt;.gz.tmp，完成后原子重命名为 .gz，再删除原文件，
+ * 读取方不会看到写入一半的压缩文件。压缩失败时保留原文件。
+ */
+final class SegmentCompressor {
+
+    static final String SUFFIX = ".gz";
+    static final String TEMP_SUFFIX = ".gz.tmp";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final BlockingQueue<Task> TASKS = new LinkedBlockingQueue<>();
+    private static Thread thread;
+
+    private SegmentCompressor() {
+    }
+
+    /**
+     * 将文件放入压缩队列
+     *
+     * @param file     已关闭、不会再写入的日志文件
+     * @param force    是否在重命名前将压缩文件写入磁盘
+     * @param recorder 记录压缩耗时
+     */
+    static synchronized void submit(File file, boolean force, LatencyRecorder recorder) {
+        TASKS.offer(new Task(file, force, recorder));
+        if (thread == null) {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        Task task;
+                        try {
+                            task = TASKS.take();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        long start = System.nanoTime();
+                        try {
+                            compress(task.file, task.force);
+                            task.recorder.record(System.nanoTime() - start);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }, "ZallDataAnalytics-LoggerConsumer-Compressor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+    }
+
+    static void compress(File file, boolean force) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        File target = new File(file.getPath() + SUFFIX);
+        try {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+                 FileOutputStream fileOut = new FileOutputStream(temp);
+                 GZIPOutputStream out = new GZIPOutputStream(fileOut, BUFFER_SIZE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                out.finish();
+                out.flush();
+                if (force) {
+                    fileOut.getChannel().force(false);
+                }
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!file.delete()) {
+            throw new IOException("Failed to delete compressed log file " + file);
+        }
+    }
+
+    private static final class Task {
+        final File file;
+        final boolean force;
+        final LatencyRecorder recorder;
+
+        Task(File file, boolean force, LatencyRecorder recorder) {
+            this.file = file;
+            this.force = force;
+            this.recorder = recorder;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package cn.zalldigital.consumer;
+
+import cn.zalldigital.Event;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link BackpressurePolicy.StrategyEnum#SPILL} 策略的本地转存
+ * <p>
+ * 缓存已满时的新数据凑满一个批次后追加到转存目录中的 {@link WriteAheadLog}，由后台线程定期使用单独的 HttpConsumer
+ * 直接发送，发送成功后确认；进程重启后继续发送上次遗留的批次。未凑满批次的数据由后台线程每 100 毫秒写入磁盘，
+ * 进程异常退出时最多丢失这段时间内转存的数据。批次写入磁盘后计入 {@link BackpressurePolicy#getSpilledCount()}，
+ * 写入失败的批次按实际条数同时计入策略和 metrics 中丢弃的数据条数。
+ */
+final class SpillStore implements Closeable {
+
+    private static final long SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final long REPLAY_INTERVAL_MS = 1000;
+    private static final long FLUSH_INTERVAL_MS = 100;
+
+    private final WriteAheadLog log;
+    private final HttpConsumer httpConsumer;
+    private final BackpressurePolicy policy;
+    private final ConsumerMetrics metrics;
+    private final int bulkSize;
+    private final Thread replayer;
+    private final Object replayLock = new Object();
+    private List<Event> pending = new ArrayList<>();
+    private volatile boolean running = true;
+
+    SpillStore(BackpressurePolicy policy, HttpConsumer.Config httpConfig, int bulkSize, ConsumerMetrics metrics) {
+        String directory = policy.getSpillDirectory();
+        try {
+            this.log = new WriteAheadLog(new File(directory), SEGMENT_SIZE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open spill directory " + directory, e);
+        }
+        this.httpConsumer = new HttpConsumer(httpConfig, metrics);
+        this.policy = policy;
+        this.metrics = metrics;
+        this.bulkSize = Math.max(1, bulkSize);
+        this.replayer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replayLoop();
+            }
+        }, "ZallDataAnalytics-SpillReplayer");
+        this.replayer.setDaemon(true);
+        this.replayer.start();
+    }
+
+    /**
+     * 转存一条数据，凑满一个批次后写入磁盘
+     *
+     * @return 已关闭时返回 false，由调用方计入丢弃的数据条数；接收后写入磁盘的结果由 {@link #writePending()} 统计
+     */
+    synchronized boolean spill(Event event) {
+        if (!running) {
+            return false;
+        }
+        pending.add(event);
+        if (pending.size() >= bulkSize) {
+            writePending();
+        }
+        return true;
+    }
+
+    /**
+     * 将未凑满批次的数据写入磁盘
+     */
+    synchronized void flush() {
+        if (!pending.isEmpty()) {
+            writePending();
+        }
+    }
+
+    /**
+     * 将 pending 中的数据作为一个批次写入磁盘，写入失败时整个批次计入丢弃的数据条数
+     */
+    private void writePending() {
+        List<Event> batch = pending;
+        pending = new ArrayList<>(bulkSize);
+        try {
+            long id = log.append(EventEncoder.toJson(batch).getBytes(StandardCharsets.UTF_8));
+            // 交由后台线程发送
+            log.release(id);
+            policy.addSpilled(batch.size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            policy.addDropped(batch.size());
+            metrics.addDropped(batch.size());
+        }
+    }
+
+    private void replayLoop() {
+        WriteAheadLog.Replayer sender = new WriteAheadLog.Replayer() {
+            @Override
+            public void replay(String data) throws Exception {
+                httpConsumer.consume(data);
+            }
+        };
+        long lastReplay = System.currentTimeMillis();
+        while (running) {
+            synchronized (replayLock) {
+                try {
+                    replayLock.wait(FLUSH_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (!running) {
+                break;
+            }
+            flush();
+            if (System.currentTimeMillis() - lastReplay < REPLAY_INTERVAL_MS) {
+                continue;
+            }
+            lastReplay = System.currentTimeMillis();
+            try {
+                log.replay(sender);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 写入剩余数据后停止后台线程，未发送的批次保留在磁盘上，下次启动时继续发送
+     */
+    @Override
+    public void close() {
+        flush();
+        synchronized (this) {
+            running = false;
+        }
+        synchronized (replayLock) {
+            replayLock.notifyAll();
+        }
+        try {
+            replayer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        httpConsumer.close();
+    }
+}
@@ -0,0 +1,219 @@
+package cn.zalldigital.consumer;
+
+import cn.zalldigital.Event;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分片的数据缓存
+ * <p>
+ * 调用线程按线程 ID 固定放入其中一个分片，每个分片是单独加锁的环形数组，多个线程同时放入数据时不会竞争同一把锁，
+ * 也不会为每条数据创建链表节点。发送线程依次从各个分片取出数据组成批次。同一个线程放入的数据保持先后顺序，
+ * 不同线程之间的数据不保证顺序。
+ * <p>
+ * 读写分片中的数据需持有该分片的锁；取出数据的方法只允许一个线程同时调用。
+ */
+final class StripedEventBuffer {
+
+    private static final int INITIAL_SHARD_SIZE = 16;
+
+    private final Shard[] shards;
+    private final int shardCapacity;
+    private final LongAdder size = new LongAdder();
+
+    /**
+     * 下一次取数据的起始分片，只由发送线程访问
+     */
+    private int drainIndex;
+
+    /**
+     * @param shardCount    分片数
+     * @param shardCapacity 每个分片的最大数据条数
+     */
+    StripedEventBuffer(int shardCount, int shardCapacity) {
+        this.shards = new Shard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard();
+        }
+        this.shardCapacity = Math.max(1, shardCapacity);
+    }
+
+    /**
+     * @return 当前线程使用的分片
+     */
+    Shard shard() {
+        return shards[(int) (Thread.currentThread().getId() % shards.length)];
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return 所有分片中的数据条数，其他线程同时放入或取出时为近似值
+     */
+    int size() {
+        return (int) size.sum();
+    }
+
+    /**
+     * 按分片轮流取出一条数据
+     *
+     * @return 缓存为空时返回 null
+     */
+    Event poll() {
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[nextDrainIndex()];
+            synchronized (shard) {
+                Event event = shard.poll();
+                if (event != null) {
+                    shard.notifyAll();
+                    return event;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从各个分片依次取出数据，每次调用从下一个分片开始，避免总是先发送同一个分片的数据
+     *
+     * @param list 取出的数据
+     * @param max  最多取出的数据条数
+     * @return 取出的数据条数
+     */
+    int drainTo(List<Event> list, int max) {
+        int drained = 0;
+        int start = nextDrainIndex();
+        for (int i = 0; i < shards.length && drained < max; i++) {
+            Shard shard = shards[(start + i) % shards.length];
+            synchronized (shard) {
+                int n = shard.drainTo(list, max - drained);
+                if (n > 0) {
+                    drained += n;
+                    shard.notifyAll();
+                }
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * @return 最早放入且仍在缓存中的数据所在分片由空变为非空的时间，缓存为空时返回 -1
+     */
+    long oldestBufferedTime() {
+        long oldest = -1;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                if (shard.count > 0 && (oldest < 0 || shard.firstBufferedTime < oldest)) {
+                    oldest = shard.firstBufferedTime;
+                }
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * 将早于指定时间放入的非空分片重新计时
+     */
+    void resetBufferedTime(long time) {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                if (shard.count > 0 && shard.firstBufferedTime < time) {
+                    shard.firstBufferedTime = time;
+                }
+            }
+        }
+    }
+
+    private int nextDrainIndex() {
+        int index = drainIndex;
+        drainIndex = index + 1 == shards.length ? 0 : index + 1;
+        return index;
+    }
+
+    /**
+     * 单个分片，以自身为锁。取出数据后通过 notifyAll 唤醒等待空间的线程
+     */
+    final class Shard {
+
+        private Event[] items = new Event[INITIAL_SHARD_SIZE];
+        private int head;
+
+        /**
+         * 写入时持有分片的锁，放入数据后可以不加锁读取以判断是否需要发送
+         */
+        private volatile int count;
+
+        /**
+         * 正在等待该分片空间的线程数，大于 0 时新数据不能抢先放入
+         */
+        int blockedSenders;
+
+        private long firstBufferedTime;
+
+        int count() {
+            return count;
+        }
+
+        boolean isFull() {
+            return count >= shardCapacity;
+        }
+
+        boolean isNearlyFull() {
+            return count >= shardCapacity * BackpressurePolicy.SAMPLE_THRESHOLD;
+        }
+
+        /**
+         * 放入数据，不检查容量
+         */
+        void add(Event event) {
+            if (count == 0) {
+                firstBufferedTime = System.currentTimeMillis();
+            } else if (count == items.length) {
+                grow();
+            }
+            items[(head + count) & (items.length - 1)] = event;
+            count++;
+            size.increment();
+        }
+
+        /**
+         * 取出分片中最早的数据，分片为空时返回 null
+         */
+        Event poll() {
+            if (count == 0) {
+                return null;
+            }
+            Event event = items[head];
+            items[head] = null;
+            head = (head + 1) & (items.length - 1);
+            count--;
+            size.decrement();
+            return event;
+        }
+
+        private int drainTo(List<Event> list, int max) {
+            int n = Math.min(max, count);
+            int mask = items.length - 1;
+            for (int i = 0; i < n; i++) {
+                list.add(items[head]);
+                items[head] = null;
+                head = (head + 1) & mask;
+            }
+            count -= n;
+            size.add(-n);
+            return n;
+        }
+
+        private void grow() {
+            Event[] grown = new Event[items.length << 1];
+            int firstPart = items.length - head;
+            System.arraycopy(items, head, grown, 0, firstPart);
+            System.arraycopy(items, 0, grown, firstPart, head);
+            items = grown;
+            head = 0;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package cn.zalldigital.consumer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * BatchConsumer 使用的预写日志
+ * <p>
+ * 每个批次在发送前顺序追加到当前段文件（wal-&lt;起始编号&gt;.log），发送成功后在对应的 .ack 文件中记录该批次编号。
+ * 未确认的批次由后台线程重新发送（包括进程重启后遗留的段文件），所有批次都已确认的旧段文件会被删除。
+ * <p>
+ * 记录格式：int 数据长度 + long 批次编号 + int CRC32 + 数据。进程崩溃导致的不完整记录在读取时会被忽略。
+ * <p>
+ * 写入磁盘的策略与 {@link LoggerConsumer.DurabilityEnum} 相同：{@link LoggerConsumer.DurabilityEnum#NONE NONE}
+ * 只能保证进程崩溃时不丢失数据，主机崩溃或断电时会丢失操作系统缓存中的批次；其他策略按时间间隔或在每次追加后写入磁盘。
+ * 确认记录不主动写入磁盘，丢失时对应的批次会被重复发送。
+ */
+final class WriteAheadLog implements Closeable {
+
+    /**
+     * 重新发送批次
+     */
+    interface Replayer {
+        void replay(String data) throws Exception;
+    }
+
+    private static final String PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String ACK_SUFFIX = ".ack";
+    private static final int HEADER_SIZE = 16;
+
+    private final File directory;
+    private final long segmentSize;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Set<Long> inFlight = new HashSet<>();
+    private final CRC32 crc = new CRC32();
+    private final LoggerConsumer.DurabilityEnum durability;
+    private final LatencyRecorder fsyncLatency;
+    private final Thread fsyncThread;
+    private final Object forceLock = new Object();
+    private Segment active;
+    private long nextId;
+
+    /**
+     * 追加的次数，只在持有 this 的锁时修改
+     */
+    private long writeSeq;
+
+    /**
+     * 已写入磁盘的追加次数，只在持有 forceLock 时访问
+     */
+    private long forcedSeq;
+    private volatile boolean closed;
+
+    WriteAheadLog(File directory, long segmentSize) throws IOException {
+        this(directory, segmentSize, LoggerConsumer.DurabilityEnum.NONE, 0, null);
+    }
+
+    /**
+     * @param durability    写入磁盘的策略，{@link LoggerConsumer.DurabilityEnum#GROUP GROUP} 和
+     *                      {@link LoggerConsumer.DurabilityEnum#EVERY_FLUSH EVERY_FLUSH} 在每次追加后写入磁盘，
+     *                      同时追加的多个线程共用一次写入
+     * @param fsyncInterval {@link LoggerConsumer.DurabilityEnum#INTERVAL INTERVAL} 策略写入磁盘的时间间隔，单位毫秒
+     * @param fsyncLatency  记录写入磁盘的耗时，可以为 null
+     */
+    WriteAheadLog(File directory, long segmentSize, LoggerConsumer.DurabilityEnum durability, final long fsyncInterval,
+                  LatencyRecorder fsyncLatency) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create WAL directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(PREFIX) && name.endsWith(LOG_SUFFIX)) {
+                    long firstId = Long.parseLong(name.substring(PREFIX.length(), name.length() - LOG_SUFFIX.length()));
+                    Segment segment = new Segment(firstId);
+                    segment.load();
+                    nextId = Math.max(nextId, segment.lastId + 1);
+                    if (!deleteIfDone(segment)) {
+                        segments.add(segment);
+                    }
+                }
+            }
+        }
+        this.durability = durability == null ? LoggerConsumer.DurabilityEnum.NONE : durability;
+        this.fsyncLatency = fsyncLatency;
+        roll();
+
+        if (this.durability == LoggerConsumer.DurabilityEnum.INTERVAL) {
+            this.fsyncThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    fsyncLoop(Math.max(1, fsyncInterval));
+                }
+            }, "ZallDataAnalytics-WalFsync");
+            this.fsyncThread.setDaemon(true);
+            this.fsyncThread.start();
+        } else {
+            this.fsyncThread = null;
+        }
+    }
+
+    /**
+     * 追加一个批次，返回批次编号。该批次在 {@link #ack(long)} 或 {@link #release(long)} 之前不会被重新发送
+     */
+    long append(byte[] data) throws IOException {
+        long id;
+        long seq;
+        synchronized (this) {
+            if (active.size >= segmentSize) {
+                roll();
+            }
+            id = nextId++;
+            crc.reset();
+            crc.update(data, 0, data.length);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(data.length).putLong(id).putInt((int) crc.getValue()).flip();
+            writeFully(active.logChannel, new ByteBuffer[]{header, ByteBuffer.wrap(data)});
+            active.size += HEADER_SIZE + data.length;
+            active.recordCount++;
+            active.lastId = id;
+            inFlight.add(id);
+            seq = ++writeSeq;
+        }
+        if (durability == LoggerConsumer.DurabilityEnum.GROUP || durability == LoggerConsumer.DurabilityEnum.EVERY_FLUSH) {
+            force(seq);
+        }
+        return id;
+    }
+
+    /**
+     * 将第 target 次及之前的追加写入磁盘。等待期间其他线程已完成的写入磁盘操作如果已经包含这些追加，直接返回
+     */
+    private void force(long target) throws IOException {
+        synchronized (forceLock) {
+            if (forcedSeq >= target) {
+                return;
+            }
+            FileChannel channel;
+            long current;
+            synchronized (this) {
+                channel = active.logChannel;
+                current = writeSeq;
+            }
+            long start = System.nanoTime();
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // 段文件切换或关闭前已经写入磁盘
+            }
+            if (fsyncLatency != null) {
+                fsyncLatency.record(System.nanoTime() - start);
+            }
+            forcedSeq = current;
+        }
+    }
+
+    /**
+     * {@link LoggerConsumer.DurabilityEnum#INTERVAL} 策略下定期写入磁盘
+     */
+    private void fsyncLoop(long interval) {
+        while (!closed) {
+            synchronized (forceLock) {
+                try {
+                    forceLock.wait(interval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (closed) {
+                return;
+            }
+            try {
+                long target;
+                synchronized (this) {
+                    target = writeSeq;
+                }
+                force(target);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 确认批次已发送成功
+     */
+    synchronized void ack(long id) throws IOException {
+        inFlight.remove(id);
+        Segment segment = find(id);
+        if (segment == null || !segment.acked.add(id)) {
+            return;
+        }
+        if (segment.ackChannel == null) {
+            segment.ackChannel = new RandomAccessFile(segment.ackFile, "rw").getChannel();
+            segment.ackChannel.position(segment.ackChannel.size());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(id).flip();
+        while (buffer.hasRemaining()) {
+            segment.ackChannel.write(buffer);
+        }
+        if (segment != active && deleteIfDone(segment)) {
+            segments.remove(segment);
+        }
+    }
+
+    /**
+     * 批次发送失败，交由后台线程重新发送
+     */
+    synchronized void release(long id) {
+        inFlight.remove(id);
+    }
+
+    /**
+     * 重新发送所有未确认的批次，遇到发送失败时停止本轮重发
+     *
+     * @return 本轮成功重发的批次数
+     */
+    int replay(Replayer replayer) throws IOException {
+        List<Segment> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(segments);
+        }
+        int replayed = 0;
+        CRC32 checksum = new CRC32();
+        for (Segment segment : snapshot) {
+            long readLimit;
+            synchronized (this) {
+                if (!segments.contains(segment)) {
+                    continue;
+                }
+                readLimit = segment.size;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.logFile)))) {
+                long position = 0;
+                while (position + HEADER_SIZE <= readLimit) {
+                    int length = in.readInt();
+                    long id = in.readLong();
+                    int expected = in.readInt();
+                    if (length < 0 || position + HEADER_SIZE + length > readLimit) {
+                        break;
+                    }
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    position += HEADER_SIZE + length;
+
+                    synchronized (this) {
+                        if (segment.acked.contains(id) || inFlight.contains(id)) {
+                            continue;
+                        }
+                        inFlight.add(id);
+                    }
+                    checksum.reset();
+                    checksum.update(data, 0, data.length);
+                    if ((int) checksum.getValue() != expected) {
+                        // 数据损坏，无法重发，直接确认
+                        ack(id);
+                        continue;
+                    }
+                    try {
+                        replayer.replay(new String(data, StandardCharsets.UTF_8));
+                    } catch (Exception e) {
+                        release(id);
+                        return replayed;
+                    }
+                    ack(id);
+                    replayed++;
+                }
+            } catch (EOFException e) {
+                // 不完整的记录
+            }
+        }
+        return replayed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fsyncThread != null) {
+            closed = true;
+            synchronized (forceLock) {
+                forceLock.notifyAll();
+            }
+            try {
+                fsyncThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (durability != LoggerConsumer.DurabilityEnum.NONE && active.logChannel != null) {
+                active.logChannel.force(false);
+            }
+            for (Segment segment : segments) {
+                segment.closeChannels();
+            }
+        }
+    }
+
+    private Segment find(long id) {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            if (segment.firstId <= id) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    private void roll() throws IOException {
+        if (active != null) {
+            if (durability != LoggerConsumer.DurabilityEnum.NONE) {
+                active.logChannel.force(false);
+            }
+            active.logChannel.close();
+            active.logChannel = null;
+            if (deleteIfDone(active)) {
+                segments.remove(active);
+            }
+        }
+        active = new Segment(nextId);
+        active.logChannel = new RandomAccessFile(active.logFile, "rw").getChannel();
+        active.logChannel.truncate(0);
+        segments.add(active);
+    }
+
+    private boolean deleteIfDone(Segment segment) throws IOException {
+        if (segment.acked.size() < segment.recordCount) {
+            return false;
+        }
+        segment.closeChannels();
+        if (!segment.logFile.delete() && segment.logFile.exists()) {
+            throw new IOException("Failed to delete WAL segment " + segment.logFile);
+        }
+        segment.ackFile.delete();
+        return true;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+        ByteBuffer last = buffers[buffers.length - 1];
+        while (last.hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
+
+    private final class Segment {
+        final long firstId;
+        final File logFile;
+        final File ackFile;
+        final Set<Long> acked = new HashSet<>();
+        FileChannel logChannel;
+        FileChannel ackChannel;
+        long size;
+        long lastId;
+        int recordCount;
+
+        Segment(long firstId) {
+            this.firstId = firstId;
+            this.lastId = firstId - 1;
+            String name = PREFIX + String.format("%020d", firstId);
+            this.logFile = new File(directory, name + LOG_SUFFIX);
+            this.ackFile = new File(directory, name + ACK_SUFFIX);
+        }
+
+        /**
+         * 读取已有段文件的记录数和已确认的批次
+         */
+        void load() throws IOException {
+            long fileSize = logFile.length();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+                while (size + HEADER_SIZE <= fileSize) {
+                    int length = in.readInt();
+                    long id = in.readLong();
+                    in.readInt();
+                    if (length < 0 || size + HEADER_SIZE + length > fileSize) {
+                        break;
+                    }
+                    long skipped = 0;
+                    while (skipped < length) {
+                        long n = in.skip(length - skipped);
+                        if (n <= 0) {
+                            throw new EOFException();
+                        }
+                        skipped += n;
+                    }
+                    size += HEADER_SIZE + length;
+                    recordCount++;
+                    lastId = id;
+                }
+            } catch (EOFException e) {
+                // 不完整的记录
+            }
+            if (ackFile.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(ackFile)))) {
+                    long ackSize = ackFile.length();
+                    for (long read = 0; read + 8 <= ackSize; read += 8) {
+                        acked.add(in.readLong());
+                    }
+                }
+            }
+        }
+
+        void closeChannels() throws IOException {
+            if (logChannel != null) {
+                logChannel.close();
+                logChannel = null;
+            }
+            if (ackChannel != null) {
+                ackChannel.close();
+                ackChannel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package cn.zalldigital.exception;
+
+import java.io.IOException;
+
+/**
+ * 熔断器处于打开状态，请求未发出
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+  final long retryDelay;
+
+  public CircuitBreakerOpenException(String message, long retryDelay) {
+    super(message);
+    this.retryDelay = retryDelay;
+  }
+
+  /**
+   * @return 距离熔断器允许下一次探测请求的时间，单位毫秒
+   */
+  public long getRetryDelay() {
+    return retryDelay;
+  }
+}
@@ -0,0 +1,57 @@
+package cn.zalldigital;
+
+import cn.zalldigital.consumer.Consumer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * item 数据的属性除 $project 外原样发送
+ */
+public class ZallDataAnalyticsItemTest {
+
+    private final List<Map<String, Object>> sent = new ArrayList<>();
+
+    private final ZallDataAnalytics za = new ZallDataAnalytics(new Consumer() {
+        @Override
+        public void send(Map<String, Object> message) {
+            sent.add(message);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    });
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void itemSetKeepsTimeProperty() throws Exception {
+        Date time = new Date(1500000000000L);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("$time", time);
+        properties.put("name", "book");
+        properties.put("$project", "other");
+        za.itemSet("book_id", "0321714113", properties);
+
+        assertEquals(1, sent.size());
+        Map<String, Object> record = sent.get(0);
+        Map<String, Object> sentProperties = (Map<String, Object>) record.get("properties");
+        assertEquals(time, sentProperties.get("$time"));
+        assertEquals("book", sentProperties.get("name"));
+        assertFalse(sentProperties.containsKey("$project"));
+        assertEquals("other", record.get("project"));
+        assertTrue((Long) record.get("time") != time.getTime());
+    }
+}
@@ -0,0 +1,176 @@
+package cn.zalldigital.consumer;
+
+import cn.zalldigital.Event;
+import cn.zalldigital.exception.HttpConsumerException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 通过本地的数据接收服务检查 {@link AsyncHttpConsumer} 的重试行为
+ */
+public class AsyncHttpConsumerTest {
+
+    private HttpServer server;
+    private ExecutorService executor;
+    /** 接下来需要失败的请求数 */
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    /** 每个请求体第一次发送时失败，重试时成功 */
+    private volatile boolean failFirstAttempt;
+    private final Set<String> seenBodies = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile int failureCode = 503;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        executor = Executors.newFixedThreadPool(4);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                try (InputStream in = exchange.getRequestBody()) {
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        body.write(buffer, 0, n);
+                    }
+                }
+                boolean fail = failuresLeft.getAndDecrement() > 0
+                        || (failFirstAttempt && seenBodies.add(body.toString("UTF-8")));
+                exchange.sendResponseHeaders(fail ? failureCode : 200, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void retriesRetryableFailures() throws Exception {
+        HttpConsumer.Config httpConfig = serverConfig();
+        httpConfig.setMaxAttempts(3);
+        AsyncHttpConsumer consumer = new AsyncHttpConsumer(new AsyncHttpConsumer.Config(httpConfig));
+        try {
+            failuresLeft.set(2);
+            consumer.consume(events()).get(5, TimeUnit.SECONDS);
+            assertEquals(3, requests.get());
+            assertEquals(0, consumer.getInFlightCount());
+        } finally {
+            consumer.close();
+        }
+    }
+
+    @Test
+    public void failsAfterMaxAttempts() throws Exception {
+        HttpConsumer.Config httpConfig = serverConfig();
+        httpConfig.setMaxAttempts(3);
+        AsyncHttpConsumer consumer = new AsyncHttpConsumer(new AsyncHttpConsumer.Config(httpConfig));
+        try {
+            failuresLeft.set(Integer.MAX_VALUE);
+            assertFailedWith(consumer, 503);
+            assertEquals(3, requests.get());
+            assertEquals(0, consumer.getInFlightCount());
+        } finally {
+            consumer.close();
+        }
+    }
+
+    @Test
+    public void doesNotRetryRejectedRequests() throws Exception {
+        HttpConsumer.Config httpConfig = serverConfig();
+        httpConfig.setMaxAttempts(3);
+        AsyncHttpConsumer consumer = new AsyncHttpConsumer(new AsyncHttpConsumer.Config(httpConfig));
+        try {
+            failureCode = 400;
+            failuresLeft.set(Integer.MAX_VALUE);
+            assertFailedWith(consumer, 400);
+            assertEquals(1, requests.get());
+        } finally {
+            consumer.close();
+        }
+    }
+
+    /**
+     * maxInFlight 只影响吞吐量，同步发送和非阻塞发送在同样的失败下送达相同的数据
+     */
+    @Test
+    public void maxInFlightDoesNotChangeDelivery() throws Exception {
+        failFirstAttempt = true;
+        for (int maxInFlight : new int[]{1, 4}) {
+            HttpConsumer.Config httpConfig = serverConfig();
+            httpConfig.setMaxAttempts(2);
+            AsyncBatchConsumer.Config config = new AsyncBatchConsumer.Config(httpConfig);
+            config.setBulkSize(10);
+            config.setMaxInFlight(maxInFlight);
+            config.setBackpressurePolicy(BackpressurePolicy.block(-1));
+            AsyncBatchConsumer consumer = new AsyncBatchConsumer(config);
+            for (int i = 0; i < 500; i++) {
+                Map<String, Object> message = new HashMap<>();
+                message.put("type", "track");
+                message.put("event", "ViewProduct");
+                message.put("distinct_id", "user" + maxInFlight + "-" + i);
+                message.put("time", System.currentTimeMillis());
+                message.put("properties", new HashMap<String, Object>());
+                consumer.send(message);
+            }
+            consumer.flush();
+            consumer.close();
+            assertEquals("maxInFlight " + maxInFlight, 500, consumer.getMetrics().getSentEvents());
+            assertEquals("maxInFlight " + maxInFlight, 0, consumer.getFailedCount());
+        }
+        // 每个批次都发送了两次
+        assertEquals(2 * seenBodies.size(), requests.get());
+    }
+
+    private HttpConsumer.Config serverConfig() {
+        HttpConsumer.Config httpConfig = new HttpConsumer.Config(
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/sa?project=default");
+        httpConfig.setBackoff(10, 20);
+        return httpConfig;
+    }
+
+    private static void assertFailedWith(AsyncHttpConsumer consumer, int httpStatusCode) throws Exception {
+        try {
+            consumer.consume(events()).get(5, TimeUnit.SECONDS);
+            fail("request should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HttpConsumerException);
+            assertEquals(httpStatusCode, ((HttpConsumerException) e.getCause()).getHttpStatusCode());
+        }
+    }
+
+    private static List<Event> events() {
+        return Collections.singletonList(Event.builder("user", false, "ViewProduct").type("track").build());
+    }
+}
@@ -0,0 +1,107 @@
+package cn.zalldigital.consumer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 检查 {@link GroupCommitter} 在写入持续失败时的积压上限和关闭行为
+ */
+public class GroupCommitterTest {
+
+    private static final int COMMIT_SIZE = 100;
+
+    /** 写入是否失败 */
+    private volatile boolean failing = true;
+    private final AtomicInteger commits = new AtomicInteger();
+    private final List<String> written = new ArrayList<>();
+
+    private final GroupCommitter.Sink sink = new GroupCommitter.Sink() {
+        @Override
+        public void commit(List<String> chunks) throws IOException {
+            commits.incrementAndGet();
+            if (failing) {
+                throw new IOException("disk full");
+            }
+            synchronized (written) {
+                written.addAll(chunks);
+            }
+        }
+    };
+
+    @Test
+    public void rejectsSubmitsWhileFailingAndFull() throws Exception {
+        GroupCommitter committer = new GroupCommitter("GroupCommitterTest", sink, 10, COMMIT_SIZE);
+        try {
+            int accepted = 0;
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    committer.submit(chunk());
+                    accepted++;
+                    Thread.sleep(1);
+                }
+                fail("submit should fail once the queue is full");
+            } catch (RuntimeException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            // 队列上限为 commitSize * 4
+            assertTrue("accepted " + accepted, accepted <= 4 * COMMIT_SIZE / chunk().length() + 1);
+
+            // 恢复后积压的数据在下一次重试时写入
+            failing = false;
+            Thread.sleep(500);
+            committer.sync();
+            synchronized (written) {
+                assertEquals(accepted, written.size());
+            }
+        } finally {
+            committer.close();
+        }
+    }
+
+    @Test
+    public void reportsDroppedDataOnClose() throws Exception {
+        GroupCommitter committer = new GroupCommitter("GroupCommitterTest", sink, 10, COMMIT_SIZE);
+        committer.submit(chunk());
+        committer.submit(chunk());
+        try {
+            committer.close();
+            fail("close should report dropped data");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("dropped 2 chunks (20 bytes)"));
+        }
+        // 关闭时再重试一次
+        assertTrue(commits.get() >= 2);
+    }
+
+    @Test
+    public void retriesOnceOnClose() throws Exception {
+        final GroupCommitter committer = new GroupCommitter("GroupCommitterTest", new GroupCommitter.Sink() {
+            @Override
+            public void commit(List<String> chunks) throws IOException {
+                // 第一次写入失败，关闭时的重试成功
+                if (commits.getAndIncrement() == 0) {
+                    throw new IOException("disk full");
+                }
+                synchronized (written) {
+                    written.addAll(chunks);
+                }
+            }
+        }, 60000, COMMIT_SIZE);
+        committer.submit(chunk());
+        committer.close();
+        assertEquals(2, commits.get());
+        assertEquals(1, written.size());
+    }
+
+    private static String chunk() {
+        return "0123456789";
+    }
+}
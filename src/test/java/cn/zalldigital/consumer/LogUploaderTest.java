@@ -0,0 +1,270 @@
+package cn.zalldigital.consumer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 通过本地的数据接收服务检查 {@link LogUploader} 的检查点续传、读取中途压缩的文件、跳过被拒绝的数据和关闭行为
+ */
+public class LogUploaderTest {
+
+    private static final String LOG_FILE = "log.2026-10-18_0";
+    private static final Pattern TAG = Pattern.compile("\"tag\":\"(\\d+)\"");
+    /** 数据接收服务拒绝包含该内容的请求 */
+    private static final String CORRUPT_LINE = "{\"type\":\"track\",\"event\":\"ViewPro";
+    private static final long TIMEOUT_MS = 20000;
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private File logDirectory;
+    /** 数据接收服务返回的状态码 */
+    private final AtomicInteger responseCode = new AtomicInteger(200);
+    /** 数据接收服务的响应延迟，单位毫秒 */
+    private volatile long responseDelay;
+    /** 每条数据被接收的次数 */
+    private final ConcurrentHashMap<Integer, AtomicInteger> received = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        logDirectory = folder.newFolder("logs");
+        executor = Executors.newFixedThreadPool(4);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String body;
+                try (InputStream in = exchange.getRequestBody()) {
+                    body = new String(readAll(in), StandardCharsets.UTF_8);
+                }
+                if (responseDelay > 0) {
+                    try {
+                        Thread.sleep(responseDelay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                String json = decode(body);
+                int code = responseCode.get();
+                if (code == 200 && (json.contains(CORRUPT_LINE + ",") || json.endsWith(CORRUPT_LINE + "]"))) {
+                    code = 400;
+                }
+                if (code == 200) {
+                    record(json);
+                }
+                exchange.sendResponseHeaders(code, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void resumesFromCheckpointAfterRestart() throws Exception {
+        appendLines(new File(logDirectory, LOG_FILE), 0, 500);
+        LogUploader uploader = new LogUploader(config());
+        awaitUploaded(uploader, 500);
+        uploader.close();
+
+        appendLines(new File(logDirectory, LOG_FILE), 500, 800);
+        uploader = new LogUploader(config());
+        awaitUploaded(uploader, 300);
+        uploader.close();
+
+        assertReceivedOnce(800);
+    }
+
+    @Test
+    public void continuesWhenFileIsCompressedMidway() throws Exception {
+        File plain = new File(logDirectory, LOG_FILE);
+        appendLines(plain, 0, 300);
+        LogUploader uploader = new LogUploader(config());
+        awaitUploaded(uploader, 300);
+
+        // 切分后写入的数据只出现在压缩文件中，需要从未压缩数据的偏移量继续读取
+        appendLines(plain, 300, 700);
+        File temp = new File(logDirectory, LOG_FILE + SegmentCompressor.TEMP_SUFFIX);
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(temp))) {
+            out.write(Files.readAllBytes(plain.toPath()));
+        }
+        assertTrue(temp.renameTo(new File(logDirectory, LOG_FILE + SegmentCompressor.SUFFIX)));
+        assertTrue(plain.delete());
+
+        awaitUploaded(uploader, 700);
+        uploader.close();
+
+        // 重启后压缩文件已标记为读取完毕，不会重复发送
+        uploader = new LogUploader(config());
+        Thread.sleep(500);
+        uploader.close();
+        assertEquals(0, uploader.getUploadedCount());
+        assertReceivedOnce(700);
+    }
+
+    @Test
+    public void closeReturnsWhileBacklogIsPending() throws Exception {
+        // 积压 2000 个批次，关闭时逐个尝试发送需要将近一分钟
+        appendLines(new File(logDirectory, LOG_FILE), 0, 20000);
+        responseCode.set(503);
+        responseDelay = 50;
+        final LogUploader uploader = new LogUploader(config());
+        // 等待读取线程填满发送队列
+        Thread.sleep(500);
+
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                uploader.close();
+            }
+        });
+        closer.start();
+        closer.join(CLOSE_TIMEOUT_MS);
+        assertFalse("close() did not return", closer.isAlive());
+        assertEquals(0, uploader.getUploadedCount());
+
+        // 没有发送成功的数据在重启后全部发送
+        responseCode.set(200);
+        responseDelay = 0;
+        LogUploader restarted = new LogUploader(config());
+        awaitUploaded(restarted, 20000);
+        restarted.close();
+        assertReceivedOnce(20000);
+    }
+
+    @Test
+    public void skipsOnlyRejectedLines() throws Exception {
+        File log = new File(logDirectory, LOG_FILE);
+        appendLines(log, 0, 37);
+        try (FileOutputStream out = new FileOutputStream(log, true)) {
+            out.write((CORRUPT_LINE + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        appendLines(log, 37, 100);
+        LogUploader uploader = new LogUploader(config());
+        awaitUploaded(uploader, 100);
+        assertEquals(1, uploader.getRejectedCount());
+        uploader.close();
+        assertReceivedOnce(100);
+        assertEquals(CORRUPT_LINE + "\n", new String(Files.readAllBytes(
+                new File(logDirectory, ".uploader.rejected").toPath()), StandardCharsets.UTF_8));
+
+        // 检查点已越过被拒绝的数据，重启后不会重复发送
+        uploader = new LogUploader(config());
+        Thread.sleep(500);
+        uploader.close();
+        assertEquals(0, uploader.getUploadedCount());
+        assertEquals(0, uploader.getRejectedCount());
+    }
+
+    private LogUploader.Config config() {
+        HttpConsumer.Config httpConfig = new HttpConsumer.Config(
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/sa?project=default");
+        httpConfig.setGzip(false);
+        httpConfig.setMaxAttempts(1);
+        LogUploader.Config config = new LogUploader.Config(logDirectory.getPath(), httpConfig);
+        config.setBulkSize(10);
+        config.setMaxInFlight(2);
+        config.setPollInterval(50);
+        return config;
+    }
+
+    private static void appendLines(File file, int from, int to) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            lines.append("{\"type\":\"track\",\"event\":\"ViewProduct\",\"properties\":{\"tag\":\"")
+                    .append(i).append("\"}}\n");
+        }
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void awaitUploaded(LogUploader uploader, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (uploader.getUploadedCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(count, uploader.getUploadedCount());
+    }
+
+    private void assertReceivedOnce(int count) {
+        for (int i = 0; i < count; i++) {
+            AtomicInteger times = received.get(i);
+            assertEquals("line " + i, 1, times == null ? 0 : times.get());
+        }
+        assertEquals(count, received.size());
+    }
+
+    /**
+     * 请求体为 gzip=0&data_list=[Base64 编码的 JSON 数组]
+     */
+    private static String decode(String body) throws IOException {
+        String dataList = body.substring(body.indexOf("data_list=") + "data_list=".length());
+        return new String(Base64.getMimeDecoder().decode(URLDecoder.decode(dataList, "UTF-8")),
+                StandardCharsets.UTF_8);
+    }
+
+    private void record(String json) {
+        Matcher matcher = TAG.matcher(json);
+        while (matcher.find()) {
+            int tag = Integer.parseInt(matcher.group(1));
+            AtomicInteger times = received.get(tag);
+            if (times == null) {
+                AtomicInteger created = new AtomicInteger();
+                times = received.putIfAbsent(tag, created);
+                if (times == null) {
+                    times = created;
+                }
+            }
+            times.incrementAndGet();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
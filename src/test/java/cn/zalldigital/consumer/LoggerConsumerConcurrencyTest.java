@@ -0,0 +1,159 @@
+package cn.zalldigital.consumer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 多个线程同时调用 {@link LoggerConsumer#send(Map)} 时，每条数据恰好写入文件一次
+ */
+public class LoggerConsumerConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int LINES_PER_THREAD = 5000;
+    private static final Pattern TAG = Pattern.compile("\"tag\":\"(\\d+)-(\\d+)\"");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everyLineWrittenOnceWithTinyBuffer() throws Exception {
+        assertEveryLineWrittenOnce(config(1));
+    }
+
+    @Test
+    public void everyLineWrittenOnceWithSmallBuffer() throws Exception {
+        assertEveryLineWrittenOnce(config(1024));
+    }
+
+    @Test
+    public void everyLineWrittenOnceWithDefaultBuffer() throws Exception {
+        assertEveryLineWrittenOnce(config(8192));
+    }
+
+    @Test
+    public void everyLineWrittenOnceWithLargeBuffer() throws Exception {
+        assertEveryLineWrittenOnce(config(4 * 1024 * 1024));
+    }
+
+    @Test
+    public void everyLineWrittenOnceWithSizeRotation() throws Exception {
+        LoggerConsumer.Config config = config(1024);
+        config.setFileSize(1);
+        assertEveryLineWrittenOnce(config);
+    }
+
+    @Test
+    public void everyLineWrittenOnceWithMmapAppender() throws Exception {
+        LoggerConsumer.Config config = config(1024);
+        config.setAppenderEnum(LoggerConsumer.AppenderEnum.MMAP);
+        assertEveryLineWrittenOnce(config);
+    }
+
+    private LoggerConsumer.Config config(int bufferSize) throws IOException {
+        LoggerConsumer.Config config = new LoggerConsumer.Config(folder.newFolder().getPath());
+        config.setBufferSize(bufferSize);
+        return config;
+    }
+
+    private void assertEveryLineWrittenOnce(LoggerConsumer.Config config) throws Exception {
+        final LoggerConsumer consumer = new LoggerConsumer(config);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> errors = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < LINES_PER_THREAD; i++) {
+                            consumer.send(message(thread, i));
+                            if (i % 997 == 0) {
+                                consumer.flush();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+            writer.start();
+            threads.add(writer);
+        }
+        start.countDown();
+        for (Thread writer : threads) {
+            writer.join();
+        }
+        consumer.close();
+        assertTrue("writer threads failed: " + errors, errors.isEmpty());
+
+        int[][] seen = new int[THREADS][LINES_PER_THREAD];
+        int lines = 0;
+        File directory = new File(config.logPath);
+        File[] files = directory.listFiles();
+        assertTrue(files != null && files.length > 0);
+        for (File file : files) {
+            if (!file.getName().startsWith("log.")) {
+                continue;
+            }
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        // MMAP 方式文件末尾预留的空间
+                        continue;
+                    }
+                    Matcher matcher = TAG.matcher(line);
+                    if (!matcher.find()) {
+                        fail("unexpected line in " + file.getName() + ": " + line);
+                    }
+                    seen[Integer.parseInt(matcher.group(1))][Integer.parseInt(matcher.group(2))]++;
+                    lines++;
+                }
+            }
+        }
+
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < LINES_PER_THREAD; i++) {
+                assertEquals("line " + t + "-" + i, 1, seen[t][i]);
+            }
+        }
+        assertEquals(THREADS * LINES_PER_THREAD, lines);
+        assertEquals(THREADS * LINES_PER_THREAD, consumer.getMetrics().getSentEvents());
+    }
+
+    private static Map<String, Object> message(int thread, int index) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("tag", thread + "-" + index);
+        Map<String, Object> message = new HashMap<>();
+        message.put("type", "track");
+        message.put("event", "ViewProduct");
+        message.put("distinct_id", "user" + index);
+        message.put("time", System.currentTimeMillis());
+        message.put("properties", properties);
+        return message;
+    }
+}
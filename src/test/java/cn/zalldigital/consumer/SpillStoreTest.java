@@ -0,0 +1,89 @@
+package cn.zalldigital.consumer;
+
+import cn.zalldigital.Event;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 检查 {@link SpillStore} 计入 {@link BackpressurePolicy} 和 metrics 的转存、丢弃条数
+ */
+public class SpillStoreTest {
+
+    private static final int BULK_SIZE = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BackpressurePolicy policy;
+    private ConsumerMetrics metrics;
+    private SpillStore store;
+    private boolean closed;
+
+    @Before
+    public void setUp() throws Exception {
+        policy = BackpressurePolicy.spill(folder.newFolder("spill").getPath());
+        metrics = new ConsumerMetrics("SpillStoreTest");
+        // 后台发送不影响计数，使用不可连接的地址
+        store = new SpillStore(policy, new HttpConsumer.Config("http://127.0.0.1:1/sa"), BULK_SIZE, metrics);
+    }
+
+    @After
+    public void tearDown() {
+        if (!closed) {
+            store.close();
+        }
+        metrics.unregisterMBean();
+    }
+
+    @Test
+    public void countsSpilledOnlyAfterWrite() {
+        for (int i = 0; i < 25; i++) {
+            assertTrue(store.spill(event(true)));
+        }
+        // 未凑满的批次尚未写入磁盘
+        assertEquals(20, policy.getSpilledCount());
+        store.flush();
+        assertEquals(25, policy.getSpilledCount());
+        assertEquals(0, policy.getDroppedCount());
+        assertEquals(0, metrics.getDroppedEvents());
+    }
+
+    @Test
+    public void countsWholeBatchWhenWriteFails() {
+        for (int i = 0; i < BULK_SIZE; i++) {
+            // 缺少数据类型的数据无法编码，整个批次写入失败
+            assertTrue(store.spill(event(i != 3)));
+        }
+        assertEquals(BULK_SIZE, policy.getDroppedCount());
+        assertEquals(BULK_SIZE, metrics.getDroppedEvents());
+
+        store.spill(event(false));
+        store.flush();
+        assertEquals(BULK_SIZE + 1, policy.getDroppedCount());
+        assertEquals(BULK_SIZE + 1, metrics.getDroppedEvents());
+        assertEquals(0, policy.getSpilledCount());
+    }
+
+    @Test
+    public void rejectsAfterClose() {
+        store.close();
+        closed = true;
+        assertFalse(store.spill(event(true)));
+        assertEquals(0, policy.getDroppedCount());
+    }
+
+    private static Event event(boolean valid) {
+        Event.Builder builder = Event.builder("user", false, "ViewProduct");
+        if (valid) {
+            builder.type("track");
+        }
+        return builder.build();
+    }
+}